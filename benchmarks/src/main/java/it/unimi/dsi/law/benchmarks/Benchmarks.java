@@ -0,0 +1,39 @@
+package it.unimi.dsi.law.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/** Runs the benchmarks with the allocation profiler ({@link GCProfiler}) enabled, keeping the results as JSON in
+ * <code>results/</code>, named after the time of the run.
+ *
+ * <p>Any JMH option is accepted and takes precedence, e.g., <code>-p transactions=1000000</code> to change the size
+ * of the synthetic data, or a regular expression selecting the benchmarks to run. */
+public class Benchmarks {
+	public static final Path RESULTS = Paths.get("results");
+
+	public static void main(String[] args) throws Exception {
+		final CommandLineOptions options = new CommandLineOptions(args);
+		Files.createDirectories(RESULTS);
+
+		final ChainedOptionsBuilder builder = new OptionsBuilder().parent(options)
+				.resultFormat(options.getResultFormat().orElse(ResultFormatType.JSON))
+				.result(options.getResult().orElse(RESULTS.resolve(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json").toString()));
+
+		boolean gc = false;
+		for (ProfilerConfig p : options.getProfilers()) gc |= p.getKlass().equals("gc") || p.getKlass().equals(GCProfiler.class.getName());
+		if (!gc) builder.addProfiler(GCProfiler.class);
+
+		new Runner(builder.build()).run();
+	}
+}
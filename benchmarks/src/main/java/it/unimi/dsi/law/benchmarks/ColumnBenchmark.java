@@ -0,0 +1,48 @@
+package it.unimi.dsi.law.benchmarks;
+
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.law.graph.Parameters;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/** Extracts a column from rows of the inputs, as a sequence ({@link Utils#column}) and as the bytes of a key
+ * ({@link Utils#columnBytes}); the time is per row. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ColumnBenchmark.ROWS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnBenchmark {
+	public static final int ROWS = 10_000;
+
+	@Param({"1", "6", "12"})
+	public int column;
+
+	private MutableString[] rows;
+
+	@Setup(Level.Trial)
+	public void setup(SyntheticDump dump) {
+		this.rows = new MutableString[ROWS];
+		final Iterator<MutableString> it = Utils.readTSVs(Parameters.inputsDirectory.toFile().listFiles(), null);
+		for (int i = 0; i < ROWS; i++) {
+			if (!it.hasNext()) throw new IllegalStateException("Too few rows: increase the number of transactions");
+			this.rows[i] = it.next().copy();
+		}
+	}
+
+	@Benchmark
+	public void column(Blackhole blackhole) {
+		for (MutableString row : this.rows) blackhole.consume(Utils.column(row, this.column));
+	}
+
+	@Benchmark
+	public void columnBytes(Blackhole blackhole) {
+		for (MutableString row : this.rows) blackhole.consume(Utils.columnBytes(row, this.column));
+	}
+}
@@ -0,0 +1,89 @@
+package it.unimi.dsi.law.benchmarks;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.law.graph.Blockchain2Webgraph;
+import it.unimi.dsi.law.graph.MappingTables;
+import it.unimi.dsi.law.graph.TransactionsDatabase;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.webgraph.Transform;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Builds the address graph from tables that are computed once: {@link #storeGraph()} runs the whole construction of
+ * {@link Blockchain2Webgraph#storeGraph} (numbering, batching, sorting and compression), deleting its checkpoint
+ * before each run so that it does not resume, and {@link #processBatch()} only sorts all the arcs in a single batch
+ * with {@link Transform#processBatch}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GraphBenchmark {
+	private GOV3Function<byte[]> addressMap, transactionMap;
+	private TransactionsDatabase transactions;
+	private ProgressLogger progress;
+	private File batchDir;
+	private int[] arcSources, arcTargets;
+	private int[] source, target;
+
+	@Setup(Level.Trial)
+	public void setup(SyntheticDump dump) throws IOException {
+		this.addressMap = MappingTables.buildAddressesMap();
+		this.transactionMap = MappingTables.buildTransactionsMap();
+		this.transactions = new TransactionsDatabase(this.addressMap, this.transactionMap);
+		this.progress = Utils.getProgressLogger(GraphBenchmark.class, "arcs");
+		graphDir.toFile().mkdirs();
+		this.batchDir = Files.createTempDirectory(dump.root, "batches").toFile();
+
+		// The arcs of the graph, numbering addresses in order of appearance like storeGraph
+		final Long2IntOpenHashMap nodes = new Long2IntOpenHashMap();
+		nodes.defaultReturnValue(-1);
+		long pairs = 0;
+		for (long t = 0; t < this.transactionMap.size64(); t++) pairs += (long) this.transactions.getInputAddresses(t).length * this.transactions.getOutputAddresses(t).length;
+		this.arcSources = new int[Math.toIntExact(pairs)];
+		this.arcTargets = new int[this.arcSources.length];
+
+		int j = 0;
+		for (long t = 0; t < this.transactionMap.size64(); t++) {
+			for (long inputAddress : this.transactions.getInputAddresses(t)) {
+				final int x = nodes.computeIfAbsent(inputAddress, a -> nodes.size());
+				for (long outputAddress : this.transactions.getOutputAddresses(t)) {
+					this.arcSources[j] = x;
+					this.arcTargets[j++] = nodes.computeIfAbsent(outputAddress, a -> nodes.size());
+				}
+			}
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void clean() throws IOException {
+		Files.deleteIfExists(checkpointsDirectory.resolve("arcs.checkpoint"));
+		// processBatch sorts in place
+		this.source = this.arcSources.clone();
+		this.target = this.arcTargets.clone();
+	}
+
+	@Benchmark
+	public long[] storeGraph() throws IOException {
+		return Blockchain2Webgraph.storeGraph(this.transactions, this.transactionMap.size64(), this.addressMap.size64(), basename.toString(), this.progress);
+	}
+
+	@Benchmark
+	public long processBatch() throws IOException {
+		final List<File> batches = new ArrayList<>();
+		final long arcs = Transform.processBatch(this.source.length, this.source, this.target, this.batchDir, batches);
+		for (File b : batches) b.delete();
+		return arcs;
+	}
+}
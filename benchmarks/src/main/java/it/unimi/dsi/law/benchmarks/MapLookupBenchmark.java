@@ -0,0 +1,69 @@
+package it.unimi.dsi.law.benchmarks;
+
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.law.graph.MappingTables;
+import it.unimi.dsi.law.graph.Parameters;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static it.unimi.dsi.law.graph.Parameters.BitcoinColumn.RECIPIENT;
+import static it.unimi.dsi.law.graph.Parameters.BitcoinColumn.SPENDING_TRANSACTION_HASH;
+
+/** Looks up addresses and transactions in the maps, given the keys ({@link GOV3Function#getLong}) and, as during
+ * ingestion, given the rows they must be extracted from; the time is per key. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(MapLookupBenchmark.KEYS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapLookupBenchmark {
+	public static final int KEYS = 10_000;
+
+	private GOV3Function<byte[]> addressMap, transactionMap;
+	private byte[][] addresses, transactions;
+	private MutableString[] rows;
+
+	@Setup(Level.Trial)
+	public void setup(SyntheticDump dump) throws Exception {
+		this.addressMap = MappingTables.buildAddressesMap();
+		this.transactionMap = MappingTables.buildTransactionsMap();
+
+		this.addresses = new byte[KEYS][];
+		this.transactions = new byte[KEYS][];
+		this.rows = new MutableString[KEYS];
+		final Iterator<MutableString> it = Utils.readTSVs(Parameters.inputsDirectory.toFile().listFiles(), null);
+		for (int i = 0; i < KEYS; i++) {
+			if (!it.hasNext()) throw new IllegalStateException("Too few rows: increase the number of transactions");
+			this.rows[i] = it.next().copy();
+			this.addresses[i] = Utils.columnBytes(this.rows[i], RECIPIENT);
+			this.transactions[i] = Utils.columnBytes(this.rows[i], SPENDING_TRANSACTION_HASH);
+		}
+	}
+
+	@Benchmark
+	public long addresses() {
+		long sum = 0;
+		for (byte[] key : this.addresses) sum += this.addressMap.getLong(key);
+		return sum;
+	}
+
+	@Benchmark
+	public long transactions() {
+		long sum = 0;
+		for (byte[] key : this.transactions) sum += this.transactionMap.getLong(key);
+		return sum;
+	}
+
+	@Benchmark
+	public long addressesFromRows() {
+		long sum = 0;
+		for (MutableString row : this.rows) sum += this.addressMap.getLong(Utils.columnBytes(row, RECIPIENT));
+		return sum;
+	}
+}
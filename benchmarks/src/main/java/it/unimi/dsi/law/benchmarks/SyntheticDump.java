@@ -0,0 +1,46 @@
+package it.unimi.dsi.law.benchmarks;
+
+import it.unimi.dsi.law.DumpGenerator;
+import it.unimi.dsi.law.graph.Parameters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** A synthetic dump written by {@link DumpGenerator} to a temporary directory at the start of a trial, split in
+ * {@link #DAYS} daily files, and used as the resources of {@link Parameters} (through its configuration property), so
+ * every benchmark reads and writes its artifacts there. As {@link Parameters} is initialised once per JVM, benchmarks
+ * must be forked. */
+@State(Scope.Benchmark)
+public class SyntheticDump {
+	public static final int DAYS = 4;
+
+	@Param("100000")
+	public int transactions;
+	@Param("0")
+	public long seed;
+
+	public Path root;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		this.root = Files.createTempDirectory("bitcoin2webgraph-benchmark");
+		System.setProperty(Parameters.CONFIGURATION_PROPERTY, DumpGenerator.configuration(this.root).toString());
+		new DumpGenerator(this.transactions, (this.transactions + DAYS - 1) / DAYS, 0.5, this.seed).write(this.root, DAYS);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+		try (Stream<Path> walk = Files.walk(this.root)) {
+			for (Path p : walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) Files.delete(p);
+		}
+	}
+}
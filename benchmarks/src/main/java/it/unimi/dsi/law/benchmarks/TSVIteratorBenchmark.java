@@ -0,0 +1,46 @@
+package it.unimi.dsi.law.benchmarks;
+
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.law.graph.Parameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/** Scans all the rows of the inputs and of the outputs with the iterator returned by {@link Utils#readTSVs}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TSVIteratorBenchmark {
+	private File[] inputs, outputs;
+
+	@Setup(Level.Trial)
+	public void setup(SyntheticDump dump) {
+		this.inputs = Parameters.inputsDirectory.toFile().listFiles();
+		this.outputs = Parameters.outputsDirectory.toFile().listFiles();
+		Arrays.sort(this.inputs);
+		Arrays.sort(this.outputs);
+	}
+
+	@Benchmark
+	public long inputs() {
+		return scan(this.inputs);
+	}
+
+	@Benchmark
+	public long outputs() {
+		return scan(this.outputs);
+	}
+
+	private static long scan(File[] files) {
+		long length = 0;
+		for (Iterator<MutableString> it = Utils.readTSVs(files, null); it.hasNext(); ) length += it.next().length();
+		return length;
+	}
+}
@@ -0,0 +1,45 @@
+package it.unimi.dsi.law.benchmarks;
+
+import it.unimi.dsi.law.graph.MappingTables;
+import it.unimi.dsi.law.graph.TransactionsDatabase;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Computes the transaction tables from the inputs and the outputs, deleting the stored ones (and any checkpoint)
+ * before each run so that they are not just loaded. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransactionsDatabaseBenchmark {
+	private GOV3Function<byte[]> addressMap, transactionMap;
+
+	@Setup(Level.Trial)
+	public void setup(SyntheticDump dump) throws IOException {
+		this.addressMap = MappingTables.buildAddressesMap();
+		this.transactionMap = MappingTables.buildTransactionsMap();
+	}
+
+	@Setup(Level.Invocation)
+	public void clean() throws IOException {
+		Files.deleteIfExists(transactionInputsFile);
+		Files.deleteIfExists(transactionOutputsFile);
+		Files.deleteIfExists(inputsQuarantineFile);
+		Files.deleteIfExists(outputsQuarantineFile);
+		Files.deleteIfExists(checkpointsDirectory.resolve("inputs.checkpoint"));
+		Files.deleteIfExists(checkpointsDirectory.resolve("outputs.checkpoint"));
+	}
+
+	@Benchmark
+	public TransactionsDatabase build() throws IOException {
+		return new TransactionsDatabase(this.addressMap, this.transactionMap);
+	}
+}
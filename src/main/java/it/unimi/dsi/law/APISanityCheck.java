@@ -1,12 +1,17 @@
 package it.unimi.dsi.law;
 
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.io.FileLinesByteArrayIterable;
 import it.unimi.dsi.io.FileLinesByteArrayIterable.FileLinesIterator;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.mph.GOV3Function;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.LoggerFactory;
 import it.unimi.dsi.webgraph.ImmutableGraph;
 
@@ -15,28 +20,46 @@ import java.io.IOException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static it.unimi.dsi.law.graph.Parameters.*;
 
 public class APISanityCheck {
 	/** Check the correctness of the graph by checking with the output
-	 * of the BlockChair API <a href="https://blockchair.com/api/docs#link_200">Blockchair API</a>. */
+	 * of the BlockChair API <a href="https://blockchair.com/api/docs#link_200">Blockchair API</a>.
+	 *
+	 * Transaction files are checked in parallel; the addresses of each file are resolved once, and every output
+	 * is looked up among the sorted successors of every input by galloping. */
 
 	private static final boolean DEBUG = false;
 
 	private static final Path transactionsDir = resources.resolve("baseline-transactions/stripped-transactions");
 	private static final ProgressLogger pl = new ProgressLogger(LoggerFactory.getLogger(APISanityCheck.class), "transactions");
-	private static int inconsistencies = 0;
+	private static final AtomicLong inconsistencies = new AtomicLong(), unknownTransactions = new AtomicLong(), unknownAddresses = new AtomicLong(), missingNodes = new AtomicLong();
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(APISanityCheck.class.getName(), "Check the graph against the inputs and outputs of the transactions downloaded from the Blockchair API in " + transactionsDir + ".",
+				new Parameter[]{
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+		final int threads = jsapResult.getInt("threads");
 
-	public static void main(String[] args) throws IOException, ClassNotFoundException {
 		pl.logger.info("Loading address map...");
 		final GOV3Function<byte[]> addressMap = (GOV3Function<byte[]>) BinIO.loadObject(addressesMapFile.toFile());
 		pl.logger.info("Loading transaction map...");
 		final GOV3Function<byte[]> transactionMap = (GOV3Function<byte[]>) BinIO.loadObject(transactionsMapFile.toFile());
 		pl.logger.info("Loading graph...");
-		final ImmutableGraph graph = ImmutableGraph.loadOffline(basename.toString(), pl);
-		if (!graph.randomAccess()) throw new IllegalArgumentException("Provided graph does not permit random access");
+		final ImmutableGraph graph = ImmutableGraph.load(basename.toString(), pl);
+
+		pl.logger.info("Loading graph ids...");
+		final int[][] nodes = IntBigArrays.newBigArray(addressMap.size64());
+		BigArrays.fill(nodes, -1);
+		int node = 0;
+		for (LongIterator it = BinIO.asLongIterator(ids.toFile()); it.hasNext(); node++) BigArrays.set(nodes, it.nextLong(), node);
 
 		final File[] transactions = transactionsDir.toFile().listFiles((d, s) -> s.endsWith(".txt"));
 		if (transactions == null) throw new NoSuchFileException("No transactions in " + transactionsDir);
@@ -45,82 +68,115 @@ public class APISanityCheck {
 		pl.itemsName = "transactions";
 		pl.expectedUpdates = transactions.length;
 
-		for (File transaction: transactions) {
-			final byte[] inputs;
-			final byte[] outputs;
-			try (FileLinesIterator lines = new FileLinesByteArrayIterable(transaction.toString()).iterator()) {
-				inputs = lines.next();
-				outputs = lines.next();
-			}
-
-			final String transactionHash = transaction.getName().substring(0, transaction.getName().length() - 4);
-			final long transactionId = transactionMap.getLong(transactionHash.getBytes());
-
-			if (transactionId == transactionMap.defaultReturnValue()) {
-				pl.logger.error("Unknown transaction " + transactionHash);
-				continue;
+		Utils.invokeAll(Utils.ranges(transactions.length, threads, (from, to) -> {
+			final ImmutableGraph g = graph.copy();
+			for (int i = (int) from; i < to; i++) {
+				check(transactions[i], g, addressMap, transactionMap, nodes);
+				synchronized (pl) {
+					pl.lightUpdate();
+				}
 			}
+			return null;
+		}), threads);
 
-			final BitSet inputDelimSet = ArrayUtils.indexesOf(inputs, (byte) 32);
-			inputDelimSet.set(inputs.length);
-			final BitSet outputDelimSet = ArrayUtils.indexesOf(outputs, (byte) 32);
-			outputDelimSet.set(outputs.length);
+		pl.logger.info("Total inconsistencies: " + inconsistencies.get());
+		pl.logger.info("Unknown transactions: " + unknownTransactions.get());
+		pl.logger.info("Unknown addresses: " + unknownAddresses.get());
+		pl.logger.info("Addresses not in the graph: " + missingNodes.get());
+		pl.done();
+	}
 
-			final int[] inputOffsets = ArrayUtils.addFirst(inputDelimSet.stream().toArray(), -1);
-			final int[] outputOffsets = ArrayUtils.addFirst(outputDelimSet.stream().toArray(), -1);
+	private static void check(File transaction, ImmutableGraph graph, GOV3Function<byte[]> addressMap, GOV3Function<byte[]> transactionMap, int[][] nodes) throws IOException {
+		final byte[] inputs;
+		final byte[] outputs;
+		try (FileLinesIterator lines = new FileLinesByteArrayIterable(transaction.toString()).iterator()) {
+			inputs = lines.next();
+			outputs = lines.next();
+		}
 
-			if (DEBUG) {
-				System.out.println("Transaction file: " + transaction);
-				System.out.println("Transaction: " + transactionHash + " (id: " + transactionId + ")");
-				System.out.println("Inputs: " + new String(inputs) + " " + Arrays.toString(inputOffsets));
-				System.out.println("Outputs: " + new String(outputs) + " " + Arrays.toString(outputOffsets));
-			}
+		final String transactionHash = transaction.getName().substring(0, transaction.getName().length() - 4);
+		final long transactionId = transactionMap.getLong(transactionHash.getBytes());
 
-			for (int i = 1; i < inputOffsets.length; i++) {
-				final byte[] input = Arrays.copyOfRange(inputs, inputOffsets[i - 1] + 1, inputOffsets[i]);
-				final int inputId = (int) addressMap.getLong(input);
+		if (transactionId == transactionMap.defaultReturnValue()) {
+			pl.logger.error("Unknown transaction " + transactionHash);
+			unknownTransactions.incrementAndGet();
+			return;
+		}
 
-				if (inputId == addressMap.defaultReturnValue()) {
-					pl.logger.error("Unknown input address " + new String(input) + " in transaction " + transactionHash);
-					continue;
-				}
+		if (DEBUG) {
+			System.out.println("Transaction file: " + transaction);
+			System.out.println("Transaction: " + transactionHash + " (id: " + transactionId + ")");
+			System.out.println("Inputs: " + new String(inputs));
+			System.out.println("Outputs: " + new String(outputs));
+		}
 
-				final int[] successors = graph.successorArray(inputId);
-				final int outdegree = graph.outdegree(inputId);
+		final IntArrayList inputSpans = new IntArrayList(), outputSpans = new IntArrayList();
+		final int[] inputNodes = resolve(inputs, inputSpans, addressMap, nodes, transactionHash);
+		final int[] outputNodes = resolve(outputs, outputSpans, addressMap, nodes, transactionHash);
 
-				for (int j = 1; j < outputOffsets.length; j++) {
-					final byte[] output = Arrays.copyOfRange(outputs, outputOffsets[j - 1] + 1, outputOffsets[j]);
-					final int outputId = (int) addressMap.getLong(output);
+		// Sort the outputs by node, so that they can be looked up in a single pass over the successors
+		final int[] order = new int[outputNodes.length];
+		for (int j = 0; j < order.length; j++) order[j] = j;
+		IntArrays.quickSort(order, (x, y) -> Integer.compare(outputNodes[x], outputNodes[y]));
 
-					pl.lightUpdate();
+		for (int i = 0; i < inputNodes.length; i++) {
+			final int inputNode = inputNodes[i];
+			if (inputNode < 0) continue;
 
-					if (outputId == inputId) {
-						continue;
-					}
+			final int[] successors = graph.successorArray(inputNode);
+			final int outdegree = graph.outdegree(inputNode);
 
-					if (outputId == addressMap.defaultReturnValue()) {
-						pl.logger.error("Unknown output address " + new String(output) + " in transaction " + transactionHash);
-						continue;
-					}
+			for (int j = 0, pos = 0; j < order.length; j++) {
+				final int outputNode = outputNodes[order[j]];
+				if (outputNode < 0 || outputNode == inputNode) continue;
 
-					if (DEBUG) System.out.println(new String(input) + " (id: " + inputId + ") -> " + new String(output) + " (id: " + outputId + ")");
+				if (DEBUG) System.out.println(span(inputs, inputSpans, i) + " (node: " + inputNode + ") -> " + span(outputs, outputSpans, order[j]) + " (node: " + outputNode + ")");
 
-					if (!contains(successors, outdegree, outputId)) {
-						pl.logger.error("Inconsistency for transaction " + transactionHash + " on input " + new String(input) + " and output " + new String(output));
-						inconsistencies++;
-					}
+				final int k = Utils.gallop(successors, pos, outdegree, outputNode);
+				if (k >= 0) {
+					pos = k;
+				} else {
+					pos = -k - 1;
+					pl.logger.error("Inconsistency for transaction " + transactionHash + " on input " + span(inputs, inputSpans, i) + " and output " + span(outputs, outputSpans, order[j]));
+					inconsistencies.incrementAndGet();
 				}
 			}
+		}
+	}
+
+	/** Returns the nodes of the space-separated addresses of a line, or -1 for unknown addresses and -2 for addresses
+	 * that are not in the graph, storing in <code>spans</code> the start and end of each address.
+	 *
+	 * <p>Each address is resolved once per file; the map requires an array holding exactly the key, so this is the only copy. */
+	private static int[] resolve(byte[] line, IntArrayList spans, GOV3Function<byte[]> addressMap, int[][] nodes, String transactionHash) {
+		for (int start = 0, end; start <= line.length; start = end + 1) {
+			end = start;
+			while (end < line.length && line[end] != ' ') end++;
+			if (end > start) {
+				spans.add(start);
+				spans.add(end);
+			}
+		}
 
-			pl.lightUpdate();
+		final int[] result = new int[spans.size() / 2];
+		for (int i = 0; i < result.length; i++) {
+			final long id = addressMap.getLong(Arrays.copyOfRange(line, spans.getInt(2 * i), spans.getInt(2 * i + 1)));
+
+			if (id == addressMap.defaultReturnValue() || id < 0 || id >= addressMap.size64()) {
+				pl.logger.error("Unknown address " + span(line, spans, i) + " in transaction " + transactionHash);
+				unknownAddresses.incrementAndGet();
+				result[i] = -1;
+			} else if ((result[i] = BigArrays.get(nodes, id)) == -1) {
+				pl.logger.error("Address " + span(line, spans, i) + " of transaction " + transactionHash + " is not in the graph");
+				missingNodes.incrementAndGet();
+				result[i] = -2;
+			}
 		}
 
-		pl.logger.info("Total inconsistencies: " + inconsistencies);
-		pl.done();
+		return result;
 	}
 
-	private static boolean contains(int[] array, int length, int key) {
-		for (int i = 0; i < length; i++) if (array[i] == key) return true;
-		return false;
+	private static String span(byte[] line, IntArrayList spans, int i) {
+		return new String(line, spans.getInt(2 * i), spans.getInt(2 * i + 1) - spans.getInt(2 * i));
 	}
 }
@@ -0,0 +1,203 @@
+package it.unimi.dsi.law;
+
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.law.graph.MappedTable;
+import it.unimi.dsi.law.graph.MappingTables;
+import it.unimi.dsi.law.graph.TransactionsDatabase;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Random access to transactions, addresses and the address graph for interactive queries, built on memory-mapped
+ * structures so that loading takes seconds: the flat transaction tables (see {@link MappedTable}), the memory-mapped
+ * graph, and the lists mapping nodes to address ids and back. Hashes and addresses are resolved through the maps
+ * built by {@link MappingTables}, and checked against the line indices of the respective files, so unknown keys are
+ * recognised as such.
+ *
+ * <p>Indices are not thread safe, but any number of {@link #copy() copies} can be used concurrently. */
+public class BlockchainIndex implements Closeable {
+	private final GOV3Function<byte[]> addressMap;
+	private final GOV3Function<byte[]> transactionMap;
+	private final LineIndex addresses;
+	private final LineIndex transactions;
+	private final MappedTable inputs;
+	private final MappedTable outputs;
+	private final MappedTable addressTransactions;
+	private final ImmutableGraph graph;
+	private final ImmutableGraph transposed;
+	private final ByteBufferLongBigList idOfNode;
+	private final ByteBufferLongBigList nodeOfAddress;
+
+	private BlockchainIndex(GOV3Function<byte[]> addressMap, GOV3Function<byte[]> transactionMap, LineIndex addresses, LineIndex transactions,
+							MappedTable inputs, MappedTable outputs, MappedTable addressTransactions,
+							ImmutableGraph graph, ImmutableGraph transposed, ByteBufferLongBigList idOfNode, ByteBufferLongBigList nodeOfAddress) {
+		this.addressMap = addressMap;
+		this.transactionMap = transactionMap;
+		this.addresses = addresses;
+		this.transactions = transactions;
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.addressTransactions = addressTransactions;
+		this.graph = graph;
+		this.transposed = transposed;
+		this.idOfNode = idOfNode;
+		this.nodeOfAddress = nodeOfAddress;
+	}
+
+	/** Loads the index, building the flat tables first if missing; the transposed graph is optional. */
+	public static BlockchainIndex load() throws IOException {
+		final GOV3Function<byte[]> addressMap = MappingTables.buildAddressesMap();
+		final GOV3Function<byte[]> transactionMap = MappingTables.buildTransactionsMap();
+
+		if (!MappedTable.exists(transactionInputsTable.toString()) || !MappedTable.exists(transactionOutputsTable.toString())
+				|| !MappedTable.exists(addressTransactionsTable.toString())) {
+			build(addressMap, transactionMap);
+		}
+
+		return new BlockchainIndex(addressMap, transactionMap,
+				LineIndex.load(addressesFile), LineIndex.load(transactionsFile),
+				MappedTable.load(transactionInputsTable.toString()), MappedTable.load(transactionOutputsTable.toString()),
+				MappedTable.load(addressTransactionsTable.toString()),
+				BVGraph.loadMapped(basename.toString()),
+				new java.io.File(transposedBasename + BVGraph.PROPERTIES_EXTENSION).exists() ? BVGraph.loadMapped(transposedBasename.toString()) : null,
+				Utils.mapLongs(ids), Utils.nodes(ids, addressMap.size64()));
+	}
+
+	/** Writes the flat transaction tables, the transactions of each address and the node of each address id. */
+	public static void build(GOV3Function<byte[]> addressMap, GOV3Function<byte[]> transactionMap) throws IOException {
+		final ProgressLogger progress = Utils.getProgressLogger(BlockchainIndex.class, "transactions");
+		final TransactionsDatabase database = new TransactionsDatabase(addressMap, transactionMap);
+		final long numTransactions = transactionMap.size64(), numAddresses = addressMap.size64();
+
+		progress.start("Storing flat transaction tables");
+		MappedTable.store(numTransactions, database::getInputAddresses, transactionInputsTable.toString());
+		MappedTable.store(numTransactions, database::getOutputAddresses, transactionOutputsTable.toString());
+		progress.done(numTransactions);
+
+		progress.start("Indexing transactions by address");
+		final long[][] offsets = LongBigArrays.newBigArray(numAddresses + 1);
+		for (long t = 0; t < numTransactions; t++) {
+			for (long a : involved(database, t)) BigArrays.incr(offsets, a + 1);
+		}
+		for (long a = 1; a <= numAddresses; a++) BigArrays.add(offsets, a, BigArrays.get(offsets, a - 1));
+
+		final long[][] cursor = BigArrays.copy(offsets);
+		final int[][] index = IntBigArrays.newBigArray(BigArrays.get(offsets, numAddresses));
+		for (int t = 0; t < numTransactions; t++) {
+			for (long a : involved(database, t)) {
+				BigArrays.set(index, BigArrays.get(cursor, a), t);
+				BigArrays.incr(cursor, a);
+			}
+		}
+
+		MappedTable.store(numAddresses, a -> {
+			final long from = BigArrays.get(offsets, a);
+			final long[] list = new long[(int) (BigArrays.get(offsets, a + 1) - from)];
+			for (int i = 0; i < list.length; i++) list[i] = BigArrays.get(index, from + i);
+			return list;
+		}, addressTransactionsTable.toString());
+		progress.done();
+
+		Utils.invert(ids, addressNodes, numAddresses);
+	}
+
+	/** Returns the sorted distinct addresses of the inputs and outputs of a transaction. */
+	private static long[] involved(TransactionsDatabase database, long transaction) {
+		final long[] in = database.getInputAddresses(transaction), out = database.getOutputAddresses(transaction);
+		final long[] all = Arrays.copyOf(in, in.length + out.length);
+		System.arraycopy(out, 0, all, in.length, out.length);
+		LongArrays.quickSort(all);
+
+		int k = 0;
+		for (int i = 0; i < all.length; i++) if (k == 0 || all[i] != all[k - 1]) all[k++] = all[i];
+		return Arrays.copyOf(all, k);
+	}
+
+	/** Returns a copy sharing the underlying structures, to be used by another thread. */
+	public BlockchainIndex copy() {
+		return new BlockchainIndex(this.addressMap, this.transactionMap, this.addresses, this.transactions,
+				this.inputs.copy(), this.outputs.copy(), this.addressTransactions.copy(),
+				this.graph.copy(), this.transposed == null ? null : this.transposed.copy(), this.idOfNode.copy(), this.nodeOfAddress.copy());
+	}
+
+	/** Returns the id of the given transaction, or -1 if it is unknown. */
+	public long transactionId(String hash) throws IOException {
+		final long id = this.transactionMap.getLong(hash.getBytes());
+		return id >= 0 && id < this.transactions.size64() && hash.equals(this.transactions.line(id)) ? id : -1;
+	}
+
+	/** Returns the id of the given address, or -1 if it is unknown. */
+	public long addressId(String address) throws IOException {
+		final long id = this.addressMap.getLong(address.getBytes());
+		return id >= 0 && id < this.addresses.size64() && address.equals(this.addresses.line(id)) ? id : -1;
+	}
+
+	public String transaction(long id) throws IOException {
+		return this.transactions.line(id);
+	}
+
+	public String address(long id) throws IOException {
+		return this.addresses.line(id);
+	}
+
+	public long numTransactions() {
+		return this.inputs.size64();
+	}
+
+	/** Returns the address ids of the inputs of the given transaction. */
+	public long[] inputs(long transaction) {
+		return this.inputs.get(transaction);
+	}
+
+	/** Returns the address ids of the outputs of the given transaction. */
+	public long[] outputs(long transaction) {
+		return this.outputs.get(transaction);
+	}
+
+	/** Returns the ids of the transactions involving the given address, in increasing order. */
+	public long[] transactions(long address) {
+		return this.addressTransactions.get(address);
+	}
+
+	public boolean hasTransposed() {
+		return this.transposed != null;
+	}
+
+	/** Returns the address ids of the successors of the given address in the graph. */
+	public long[] successors(long address) {
+		return this.neighbours(this.graph, address);
+	}
+
+	/** Returns the address ids of the predecessors of the given address in the graph; requires the transposed graph. */
+	public long[] predecessors(long address) {
+		if (this.transposed == null) throw new UnsupportedOperationException("The transposed graph is not available");
+		return this.neighbours(this.transposed, address);
+	}
+
+	private long[] neighbours(ImmutableGraph g, long address) {
+		final int node = (int) this.nodeOfAddress.getLong(address);
+		if (node == -1) return LongArrays.EMPTY_ARRAY;
+
+		final int[] successors = g.successorArray(node);
+		final long[] neighbours = new long[g.outdegree(node)];
+		for (int i = 0; i < neighbours.length; i++) neighbours[i] = this.idOfNode.getLong(successors[i]);
+		return neighbours;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.addresses.close();
+		this.transactions.close();
+	}
+}
@@ -0,0 +1,194 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.ImmutableSequentialGraph;
+import it.unimi.dsi.webgraph.LazyIntIterator;
+import it.unimi.dsi.webgraph.NodeIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/** Computes the weakly connected components of a graph with a lock-free {@link UnionFind}, joining the
+ * endpoints of every arc in parallel; as arcs are considered regardless of their direction, the graph needs
+ * not be symmetrised.
+ *
+ * <p>Components are numbered in the order of their smallest node. The largest (giant) component can be
+ * exported as a graph of its own, renumbering its nodes while keeping their relative order. */
+public class ConnectedComponents {
+	private static final Logger logger = LoggerFactory.getLogger(ConnectedComponents.class);
+	private static final ProgressLogger pl = new ProgressLogger(logger);
+
+	public static final String COMPONENTS_EXTENSION = "-wcc.ints";
+	public static final String SIZES_EXTENSION = "-wcc.sizes";
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(ConnectedComponents.class.getName(), "Compute the weakly connected components of the given graph, storing the component of each node in '" + COMPONENTS_EXTENSION +
+				"' as ints and the number of components of each size in '" + SIZES_EXTENSION + "' as text.",
+				new Parameter[]{
+						new FlaggedOption("giant", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'g', "giant", "The basename of the graph induced by the giant component, stored together with the original node of each of its nodes ('.nodes', as ints)."),
+						new FlaggedOption("ids", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'I', "ids", "The address id of each node of the graph; if given with --giant, the ids of the nodes of the giant component are stored in '.ids'."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+						new UnflaggedOption("basename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the graph."),
+						new UnflaggedOption("outputBasename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the output files."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final ImmutableGraph graph = ImmutableGraph.load(jsapResult.getString("basename"), pl);
+		final String outputBasename = jsapResult.getString("outputBasename");
+		final int threads = jsapResult.getInt("threads");
+
+		final int[] component = components(graph, threads);
+
+		int numComponents = 0;
+		for (int c : component) numComponents = Math.max(numComponents, c + 1);
+		final int[] sizes = new int[numComponents];
+		for (int c : component) sizes[c]++;
+
+		int giant = 0;
+		for (int c = 1; c < numComponents; c++) if (sizes[c] > sizes[giant]) giant = c;
+
+		BinIO.storeInts(component, outputBasename + COMPONENTS_EXTENSION);
+		storeSizes(sizes, outputBasename + SIZES_EXTENSION);
+
+		System.out.println("Components: " + numComponents);
+		System.out.println("Giant component: " + sizes[giant] + " nodes (" + 100. * sizes[giant] / graph.numNodes() + "%)");
+
+		if (jsapResult.contains("giant")) {
+			final String giantBasename = jsapResult.getString("giant");
+			final int[] nodes = storeComponent(graph, component, giant, sizes[giant], giantBasename);
+			BinIO.storeInts(nodes, giantBasename + ".nodes");
+
+			if (jsapResult.contains("ids")) {
+				final long[] giantIds = new long[nodes.length];
+				final LongIterator ids = BinIO.asLongIterator(jsapResult.getString("ids"));
+				for (int node = 0, i = 0; i < nodes.length; node++) {
+					final long id = ids.nextLong();
+					if (node == nodes[i]) giantIds[i++] = id;
+				}
+				BinIO.storeLongs(giantIds, giantBasename + ".ids");
+			}
+		}
+	}
+
+	/** Returns the component of each node, components being numbered in the order of their smallest node. */
+	public static int[] components(ImmutableGraph graph, int threads) {
+		final int n = graph.numNodes();
+		final UnionFind unionFind = new UnionFind(n);
+
+		pl.start("Joining the endpoints of arcs");
+		pl.itemsName = "nodes";
+		pl.expectedUpdates = n;
+
+		final List<Callable<Void>> tasks = new ArrayList<>();
+		for (final NodeIterator nodeIterator : graph.splitNodeIterators(Utils.numRanges(n, threads))) {
+			tasks.add(() -> {
+				long updates = 0;
+				while (nodeIterator.hasNext()) {
+					final int node = nodeIterator.nextInt();
+					final LazyIntIterator successors = nodeIterator.successors();
+					for (int s; (s = successors.nextInt()) != -1;) unionFind.union(node, s);
+
+					if (++updates == 1_000_000) {
+						synchronized (pl) { pl.update(updates); }
+						updates = 0;
+					}
+				}
+
+				synchronized (pl) { pl.update(updates); }
+				return null;
+			});
+		}
+
+		Utils.invokeAll(tasks, threads);
+		pl.done();
+
+		return unionFind.sets();
+	}
+
+	/** Stores the number of components of each size as lines <code>size\tcount</code>, by increasing size. */
+	private static void storeSizes(int[] sizes, String filename) throws IOException {
+		final int[] sorted = sizes.clone();
+		IntArrays.parallelQuickSort(sorted);
+
+		try (PrintStream out = new PrintStream(new FastBufferedOutputStream(Files.newOutputStream(Paths.get(filename))))) {
+			for (int i = 0; i < sorted.length;) {
+				int j = i;
+				while (j < sorted.length && sorted[j] == sorted[i]) j++;
+				out.println(sorted[i] + "\t" + (j - i));
+				i = j;
+			}
+		}
+	}
+
+	/** Stores the graph induced by a component and returns the original node of each of its nodes. */
+	public static int[] storeComponent(ImmutableGraph graph, int[] component, int c, int size, String basename) throws IOException {
+		final int n = graph.numNodes();
+		final int[] nodes = new int[size];
+		final int[] map = new int[n];
+		for (int i = 0, j = 0; i < n; i++) {
+			if (component[i] == c) nodes[map[i] = j++] = i;
+			else map[i] = -1;
+		}
+
+		// Arcs never leave a component, and renumbering preserves the order of successors
+		BVGraph.store(new ImmutableSequentialGraph() {
+			@Override
+			public int numNodes() {
+				return size;
+			}
+
+			@Override
+			public NodeIterator nodeIterator() {
+				return new NodeIterator() {
+					private int i = 0;
+					private int outdegree;
+					private int[] successors = IntArrays.EMPTY_ARRAY;
+
+					@Override
+					public boolean hasNext() {
+						return this.i < size;
+					}
+
+					@Override
+					public int nextInt() {
+						final int node = nodes[this.i];
+						final int[] original = graph.successorArray(node);
+						this.outdegree = graph.outdegree(node);
+						this.successors = IntArrays.ensureCapacity(this.successors, this.outdegree, 0);
+						for (int j = 0; j < this.outdegree; j++) this.successors[j] = map[original[j]];
+						return this.i++;
+					}
+
+					@Override
+					public int outdegree() {
+						return this.outdegree;
+					}
+
+					@Override
+					public int[] successorArray() {
+						return this.successors;
+					}
+				};
+			}
+		}, basename, pl);
+
+		return nodes;
+	}
+}
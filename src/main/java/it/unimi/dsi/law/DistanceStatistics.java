@@ -0,0 +1,178 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.io.TextIO;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.algo.HyperBall;
+import it.unimi.dsi.webgraph.algo.NeighbourhoodFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/** Runs HyperBall on the transpose of a graph, so that balls follow incoming arcs, and stores in one go
+ * the harmonic centrality of each node, the neighbourhood function, the effective and the harmonic diameter.
+ *
+ * <p>If a checkpoint file is given, the state of the counters is saved there after every iteration, and a
+ * run started with the same checkpoint resumes from the last completed iteration. */
+public class DistanceStatistics {
+	private static final Logger logger = LoggerFactory.getLogger(DistanceStatistics.class);
+	private static final ProgressLogger pl = new ProgressLogger(logger);
+
+	public static final String HARMONIC_EXTENSION = "-harmonic.floats";
+	public static final String NEIGHBOURHOOD_EXTENSION = "-neighbourhood.txt";
+	public static final String STATS_EXTENSION = "-distances.properties";
+
+	/** A HyperBall whose state after an iteration can be saved and restored. */
+	private static final class CheckpointedHyperBall extends HyperBall {
+		private static final long serialVersionUID = 1L;
+		private static final int VERSION = 1;
+		private final long seed;
+		private boolean completed;
+
+		private CheckpointedHyperBall(ImmutableGraph g, ImmutableGraph gt, int log2m, ProgressLogger pl, int threads, long seed) throws IOException {
+			super(g, gt, log2m, pl, threads, 0, 0, false, false, true, null, seed);
+			this.seed = seed;
+		}
+
+		/** Saves the state atomically, writing a temporary file and moving it over the checkpoint. */
+		private void save(Path checkpoint) throws IOException {
+			final Path temp = Paths.get(checkpoint + ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(VERSION);
+				out.writeInt(this.numNodes);
+				out.writeInt(this.log2m);
+				out.writeLong(this.seed);
+				out.writeInt(this.iteration);
+				out.writeDouble(this.last);
+				out.writeBoolean(this.completed);
+
+				out.writeInt(this.neighbourhoodFunction.size());
+				for (int i = 0; i < this.neighbourhoodFunction.size(); i++) out.writeDouble(this.neighbourhoodFunction.getDouble(i));
+				BinIO.storeFloats(this.sumOfInverseDistances, out);
+
+				out.writeInt(this.bits.length);
+				for (long[] chunk : this.bits) {
+					out.writeInt(chunk.length);
+					BinIO.storeLongs(chunk, out);
+				}
+			}
+
+			Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		/** Restores a state saved by {@link #save(Path)} on an initialised instance.
+		 *
+		 * <p>All counters are marked as modified, so the next iteration is a full, non-systolic one. */
+		private void restore(Path checkpoint) throws IOException {
+			try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(Files.newInputStream(checkpoint)))) {
+				if (in.readInt() != VERSION) throw new IOException("Unknown checkpoint version in " + checkpoint);
+				if (in.readInt() != this.numNodes || in.readInt() != this.log2m || in.readLong() != this.seed)
+					throw new IOException("Checkpoint " + checkpoint + " was saved for a different graph, log2m or seed");
+
+				this.iteration = in.readInt();
+				this.last = in.readDouble();
+				this.completed = in.readBoolean();
+
+				this.neighbourhoodFunction.clear();
+				for (int i = in.readInt(); i-- != 0;) this.neighbourhoodFunction.add(in.readDouble());
+				BinIO.loadFloats(in, this.sumOfInverseDistances, 0, this.sumOfInverseDistances.length);
+
+				if (in.readInt() != this.bits.length) throw new IOException("Mismatched counters in " + checkpoint);
+				for (int i = 0; i < this.bits.length; i++) {
+					if (in.readInt() != this.bits[i].length) throw new IOException("Mismatched counters in " + checkpoint);
+					// Copy in place, as registers are views over these arrays
+					BinIO.loadLongs(in, this.bits[i], 0, this.bits[i].length);
+					System.arraycopy(this.bits[i], 0, this.resultBits[i], 0, this.bits[i].length);
+				}
+			}
+
+			this.current = this.last;
+			this.systolic = this.local = this.preLocal = false;
+			Arrays.fill(this.modifiedCounter, true);
+			this.modified.set(this.numNodes);
+		}
+
+		/** Iterates until no counter changes or the upper bound on the iterations is reached, saving a checkpoint after each iteration. */
+		private void run(long upperBound, Path checkpoint) throws IOException {
+			if (checkpoint != null && checkpoint.toFile().exists()) {
+				this.init(this.seed);
+				this.restore(checkpoint);
+				logger.info("Resuming from iteration " + (this.iteration + 1) + (this.completed ? " (completed)" : ""));
+			} else {
+				this.init(this.seed);
+			}
+
+			while (!this.completed && this.iteration + 1 < upperBound) {
+				this.iterate();
+				this.completed = this.modified() == 0;
+				if (checkpoint != null) this.save(checkpoint);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(DistanceStatistics.class.getName(), "Run HyperBall on the given graph (following incoming arcs) and store its harmonic centralities in '" + HARMONIC_EXTENSION +
+				"' as floats, its neighbourhood function in '" + NEIGHBOURHOOD_EXTENSION + "' as text, and its effective and harmonic diameter in '" + STATS_EXTENSION + "'.",
+				new Parameter[]{
+						new FlaggedOption("log2m", JSAP.INTEGER_PARSER, "7", JSAP.NOT_REQUIRED, 'l', "log2m", "The logarithm of the number of registers of each counter."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+						new FlaggedOption("upperBound", JSAP.LONG_PARSER, Long.toString(Long.MAX_VALUE), JSAP.NOT_REQUIRED, 'u', "upper-bound", "An upper bound to the number of iterations."),
+						new FlaggedOption("seed", JSAP.LONG_PARSER, "0", JSAP.NOT_REQUIRED, 's', "seed", "The seed of the counters, which must not change when resuming."),
+						new FlaggedOption("checkpoint", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'c', "checkpoint", "A file where the state is saved after every iteration and from which an interrupted run resumes."),
+						new UnflaggedOption("basename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the graph."),
+						new UnflaggedOption("transposed", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the transpose of the graph."),
+						new UnflaggedOption("outputBasename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the output files."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final ImmutableGraph graph = ImmutableGraph.load(jsapResult.getString("basename"), pl);
+		final ImmutableGraph transposed = ImmutableGraph.load(jsapResult.getString("transposed"), pl);
+		final String outputBasename = jsapResult.getString("outputBasename");
+		final Path checkpoint = jsapResult.contains("checkpoint") ? new File(jsapResult.getString("checkpoint")).toPath() : null;
+
+		final CheckpointedHyperBall hyperBall = new CheckpointedHyperBall(transposed, graph, jsapResult.getInt("log2m"), pl, jsapResult.getInt("threads"), jsapResult.getLong("seed"));
+		try {
+			hyperBall.run(jsapResult.getLong("upperBound"), checkpoint);
+		} finally {
+			hyperBall.close();
+		}
+
+		final double[] neighbourhoodFunction = hyperBall.neighbourhoodFunction.toDoubleArray();
+		final double effectiveDiameter = NeighbourhoodFunction.effectiveDiameter(neighbourhoodFunction);
+		final double harmonicDiameter = NeighbourhoodFunction.harmonicDiameter(graph.numNodes(), neighbourhoodFunction);
+
+		BinIO.storeFloats(hyperBall.sumOfInverseDistances, outputBasename + HARMONIC_EXTENSION);
+		TextIO.storeDoubles(neighbourhoodFunction, outputBasename + NEIGHBOURHOOD_EXTENSION);
+
+		final Properties stats = new Properties();
+		stats.setProperty("log2m", Integer.toString(hyperBall.log2m));
+		stats.setProperty("iterations", Integer.toString(neighbourhoodFunction.length - 1));
+		stats.setProperty("effectivediameter", Double.toString(effectiveDiameter));
+		stats.setProperty("harmonicdiameter", Double.toString(harmonicDiameter));
+		try (OutputStream out = Files.newOutputStream(Paths.get(outputBasename + STATS_EXTENSION))) {
+			stats.store(out, DistanceStatistics.class.getName());
+		}
+
+		System.out.printf("Effective diameter: %,f\n", effectiveDiameter);
+		System.out.printf("Harmonic diameter: %,f\n", harmonicDiameter);
+	}
+}
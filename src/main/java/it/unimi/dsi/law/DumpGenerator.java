@@ -0,0 +1,396 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.law.graph.Parameters;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.unimi.dsi.law.graph.Parameters.BitcoinColumn;
+import static it.unimi.dsi.law.graph.Parameters.TransactionColumn;
+
+/** Writes a synthetic dump in the format of the <a href="https://blockchair.com/dumps#database">Blockchair</a> dumps,
+ * so that the whole build can be run, tested and profiled at any scale without the real one.
+ *
+ * <p>Given a directory, the generator writes the daily inputs, outputs and transactions files (with a header, and with
+ * the columns of {@link BitcoinColumn} and {@link TransactionColumn}) to <code>inputs</code>, <code>outputs</code> and
+ * <code>transactions</code>, the lists of addresses and transaction hashes from which the maps are built to
+ * <code>artifacts</code>, and a configuration file pointing the tools to the directory (see {@link Parameters}).
+ *
+ * <p>Every day has the same number of transactions, grouped in blocks whose first transaction is a coinbase, without
+ * inputs and with a single output collecting the block reward. The number of inputs and outputs of the other
+ * transactions follows a power law, as does the popularity of addresses: every input or output either uses an address
+ * born with its transaction or, with a given probability, reuses an older one, the oldest being the most likely.
+ * Inputs are not matched with the outputs they spend, as that would require the whole set of unspent outputs;
+ * the tools only join inputs and outputs through the transactions.
+ *
+ * <p>The dump is a function of the seed alone: days are generated in parallel, each with a generator of its own. */
+public class DumpGenerator {
+	/** The addresses born with each transaction. */
+	public static final double ADDRESSES_PER_TRANSACTION = 1.5;
+	/** The exponents of the power laws of the number of inputs, of outputs (minus one, as most transactions have a
+	 * payment and a change output) and of the values (in satoshis). */
+	public static final double FAN_IN_EXPONENT = 3, FAN_OUT_EXPONENT = 3.2, VALUE_EXPONENT = 1.1;
+	/** The largest number of inputs or outputs of a transaction. */
+	public static final int MAX_FAN = 5_000;
+	/** The exponent skewing reused addresses towards the oldest ones. */
+	public static final double REUSE_SKEW = 3;
+	public static final int BLOCKS_PER_DAY = 144;
+	public static final long DUST = 546, MAX_VALUE = 2_100_000_000_000_000L, REWARD = 5_000_000_000L;
+	public static final int HALVING = 210_000;
+	/** The price of a bitcoin in dollars, used for all the values in dollars. */
+	public static final double PRICE = 30_000;
+	/** The approximate size of the files of a transaction, to choose the number of transactions from a size. */
+	public static final long BYTES_PER_TRANSACTION = 1_350;
+
+	private static final LocalDate GENESIS = LocalDate.of(2009, 1, 3);
+	private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+	private static final String BASE58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+	private static final String BECH32 = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
+
+	private static final String[] IO_HEADER = {"block_id", "transaction_hash", "index", "time", "value", "value_usd", "recipient", "type", "script_hex",
+			"is_from_coinbase", "is_spendable", "spending_block_id", "spending_transaction_hash", "spending_index", "spending_time", "spending_value_usd",
+			"spending_sequence", "spending_signature_hex", "spending_witness", "lifespan", "cdd"};
+	private static final String[] TRANSACTION_HEADER = {"block_id", "hash", "time", "size", "weight", "version", "lock_time", "is_coinbase", "has_witness",
+			"input_count", "output_count", "input_total", "input_total_usd", "output_total", "output_total_usd", "fee", "fee_usd", "fee_per_kb",
+			"fee_per_kb_usd", "fee_per_kwu", "fee_per_kwu_usd", "cdd_total"};
+
+	private final long numTransactions, numAddresses, seed;
+	private final int transactionsPerDay, transactionsPerBlock;
+	private final double reuse;
+
+	public DumpGenerator(long numTransactions, int transactionsPerDay, double reuse, long seed) {
+		this.numTransactions = numTransactions;
+		this.numAddresses = Math.max(1, (long) Math.ceil(ADDRESSES_PER_TRANSACTION * numTransactions));
+		this.transactionsPerDay = transactionsPerDay;
+		this.transactionsPerBlock = Math.max(1, transactionsPerDay / BLOCKS_PER_DAY);
+		this.reuse = reuse;
+		this.seed = seed;
+	}
+
+	/** Writes the dump to the given directory, generating days in parallel, and returns the number of bytes written.
+	 * The configuration file is written first, so that it can be used before {@link Parameters} is initialised. */
+	public long write(Path root, int threads) throws IOException {
+		Files.createDirectories(root);
+		Files.write(configuration(root), ("resources = " + root.toAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+
+		final Path inputs = Files.createDirectories(root.resolve("inputs"));
+		final Path outputs = Files.createDirectories(root.resolve("outputs"));
+		final Path transactions = Files.createDirectories(root.resolve("transactions"));
+		final Path artifacts = Files.createDirectories(root.resolve("artifacts"));
+
+		final long days = (this.numTransactions + this.transactionsPerDay - 1) / this.transactionsPerDay;
+		final ProgressLogger progress = Utils.getProgressLogger(DumpGenerator.class, "days");
+		progress.expectedUpdates = days;
+		progress.start("Generating " + this.numTransactions + " transactions in " + days + " days");
+
+		final AtomicLong bytes = new AtomicLong();
+		final List<Callable<Void>> tasks = new ArrayList<>();
+		tasks.add(() -> {
+			bytes.addAndGet(this.writeKeys(artifacts));
+			return null;
+		});
+		for (long d = 0; d < days; d++) {
+			final long day = d;
+			tasks.add(() -> {
+				bytes.addAndGet(this.writeDay(day, inputs, outputs, transactions));
+				synchronized (progress) {
+					progress.update();
+				}
+				return null;
+			});
+		}
+
+		Utils.invokeAll(tasks, threads);
+		progress.done();
+
+		return bytes.get();
+	}
+
+	/** Returns the configuration file of a dump written to the given directory. */
+	public static Path configuration(Path root) {
+		return root.resolve("bitcoin2webgraph.properties");
+	}
+
+	/** Writes the list of addresses and the list of transaction hashes, in order of id. */
+	private long writeKeys(Path artifacts) throws IOException {
+		final StringBuilder s = new StringBuilder();
+		try (Counting addresses = new Counting(artifacts.resolve(Parameters.addressesFile.getFileName().toString()));
+			 Counting transactions = new Counting(artifacts.resolve(Parameters.transactionsFile.getFileName().toString()))) {
+			for (long a = 0; a < this.numAddresses; a++) {
+				s.setLength(0);
+				address(a, s);
+				addresses.line(s);
+			}
+			for (long t = 0; t < this.numTransactions; t++) {
+				s.setLength(0);
+				hash(t, s);
+				transactions.line(s);
+			}
+			return addresses.bytes + transactions.bytes;
+		}
+	}
+
+	private long writeDay(long day, Path inputsDirectory, Path outputsDirectory, Path transactionsDirectory) throws IOException {
+		final XoRoShiRo128PlusRandom random = new XoRoShiRo128PlusRandom(mix(this.seed ^ mix(day)));
+		final LocalDate date = GENESIS.plusDays(day);
+		final String suffix = date.format(DAY) + ".tsv";
+		final String midnight = date.toString() + " ";
+
+		final long first = day * this.transactionsPerDay, last = Math.min(this.numTransactions, first + this.transactionsPerDay);
+		final Row row = new Row(), transaction = new Row();
+		long[] values = new long[16];
+
+		try (Counting inputs = new Counting(inputsDirectory.resolve("blockchair_bitcoin_inputs_" + suffix));
+			 Counting outputs = new Counting(outputsDirectory.resolve("blockchair_bitcoin_outputs_" + suffix));
+			 Counting transactions = new Counting(transactionsDirectory.resolve("blockchair_bitcoin_transactions_" + suffix))) {
+			inputs.line(String.join("\t", IO_HEADER));
+			outputs.line(String.join("\t", IO_HEADER));
+			transactions.line(String.join("\t", TRANSACTION_HEADER));
+
+			for (long t = first; t < last; t++) {
+				final int position = (int) (t - first);
+				final long block = day * ((this.transactionsPerDay + this.transactionsPerBlock - 1) / this.transactionsPerBlock) + position / this.transactionsPerBlock;
+				final boolean coinbase = position % this.transactionsPerBlock == 0;
+				final int seconds = (int) Math.min(86_399, (long) (position / this.transactionsPerBlock) * 86_400 / BLOCKS_PER_DAY + random.nextInt(60));
+				final String time = midnight + String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+
+				final int numInputs = coinbase ? 0 : powerLaw(random, FAN_IN_EXPONENT, MAX_FAN);
+				final int numOutputs = coinbase ? 1 : Math.min(MAX_FAN, 1 + powerLaw(random, FAN_OUT_EXPONENT, MAX_FAN));
+				values = ensure(values, Math.max(numInputs, numOutputs));
+
+				long inputTotal = 0, cddTotal = 0;
+				for (int i = 0; i < numInputs; i++) {
+					final long value = Math.min(MAX_VALUE, (long) (DUST * Math.pow(1 - random.nextDouble(), -1 / VALUE_EXPONENT)));
+					final long spent = Math.max(0, t - 1 - (long) (t * Math.pow(random.nextDouble(), 8)));
+					final long lifespan = (t - spent) * 86_400 / this.transactionsPerDay;
+					final long cdd = value / 100_000_000 * lifespan / 86_400;
+					inputTotal += value;
+					cddTotal += cdd;
+
+					row.clear();
+					row.add(Math.max(0, block - 1 - (t - spent) / this.transactionsPerBlock));
+					hash(spent, row.next());
+					row.add(random.nextInt(4)).add(time).add(value).addUsd(value);
+					final long address = this.reused(t, random);
+					address(address, row.next());
+					row.add(type(address)).add(script(address)).add(random.nextInt(100) == 0 ? 1 : 0).add(1);
+					row.add(block);
+					hash(t, row.next());
+					row.add(i).add(time).addUsd(value).add(4294967295L).add("").add("").add(lifespan).add(cdd);
+					inputs.line(row.s);
+				}
+
+				final long fee = coinbase ? 0 : Math.min(inputTotal / 2, (long) (random.nextDouble() * 20_000));
+				final long outputTotal = coinbase ? REWARD >> Math.min(63, block / HALVING) : inputTotal - fee;
+				split(outputTotal, numOutputs, values, random);
+
+				for (int o = 0; o < numOutputs; o++) {
+					final long address = random.nextDouble() < this.reuse ? this.reused(t, random) : this.born(t, random);
+					row.clear();
+					row.add(block);
+					hash(t, row.next());
+					row.add(o).add(time).add(values[o]).addUsd(values[o]);
+					address(address, row.next());
+					row.add(type(address)).add(script(address)).add(coinbase ? 1 : 0).add(1);
+					for (int c = BitcoinColumn.SPENDING_BLOCK_ID; c <= BitcoinColumn.CDD; c++) row.add("");
+					outputs.line(row.s);
+				}
+
+				final int size = 10 + 148 * numInputs + 34 * numOutputs;
+				transaction.clear();
+				transaction.add(block);
+				hash(t, transaction.next());
+				transaction.add(time).add(size).add(4 * size).add(1).add(0).add(coinbase ? 1 : 0).add(0).add(numInputs).add(numOutputs)
+						.add(inputTotal).addUsd(inputTotal).add(outputTotal).addUsd(outputTotal).add(fee).addUsd(fee)
+						.add(fee * 1000 / size).addUsd(fee * 1000 / size).add(fee * 1000 / (4 * size)).addUsd(fee * 1000 / (4 * size)).add(cddTotal);
+				transactions.line(transaction.s);
+			}
+
+			return inputs.bytes + outputs.bytes + transactions.bytes;
+		}
+	}
+
+	/** Returns one of the addresses born with the given transaction. */
+	private long born(long t, XoRoShiRo128PlusRandom random) {
+		final long from = (long) ((double) t * this.numAddresses / this.numTransactions);
+		final long to = Math.max(from + 1, (long) ((double) (t + 1) * this.numAddresses / this.numTransactions));
+		return Math.min(this.numAddresses - 1, from + random.nextLong(to - from));
+	}
+
+	/** Returns an address born before the given transaction (or with it, for the first ones), skewed towards the oldest. */
+	private long reused(long t, XoRoShiRo128PlusRandom random) {
+		final long born = (long) ((double) t * this.numAddresses / this.numTransactions);
+		if (born == 0) return this.born(t, random);
+		return (long) (born * Math.pow(random.nextDouble(), REUSE_SKEW));
+	}
+
+	/** Returns a number between one and the given maximum distributed as a discrete power law. */
+	private static int powerLaw(XoRoShiRo128PlusRandom random, double exponent, int max) {
+		return (int) Math.min(max, Math.floor(Math.pow(1 - random.nextDouble(), -1 / (exponent - 1))));
+	}
+
+	/** Splits a total in the given number of random parts. */
+	private static void split(long total, int n, long[] parts, XoRoShiRo128PlusRandom random) {
+		double sum = 0;
+		for (int i = 0; i < n; i++) sum += parts[i] = 1 + random.nextInt(1000);
+		long rest = total;
+		for (int i = 0; i < n - 1; i++) rest -= parts[i] = (long) (total * (parts[i] / sum));
+		parts[n - 1] = rest;
+	}
+
+	private static long[] ensure(long[] a, int length) {
+		return a.length >= length ? a : new long[Math.max(length, 2 * a.length)];
+	}
+
+	/** Appends the hash of a transaction: 64 hexadecimal digits whose first 16 are a bijection of its id. */
+	static void hash(long t, StringBuilder s) {
+		long x = mix(t);
+		for (int w = 0; w < 4; w++, x = mix(x)) hex(x, s);
+	}
+
+	/** Appends the 16 hexadecimal digits of a long. */
+	private static void hex(long x, StringBuilder s) {
+		final String hex = Long.toHexString(x);
+		for (int i = hex.length(); i < 16; i++) s.append('0');
+		s.append(hex);
+	}
+
+	/** Appends an address: legacy (base58, starting with 1 or 3) or native segwit (bech32, starting with bc1q), whose
+	 * first digits are a bijection of its id. */
+	static void address(long a, StringBuilder s) {
+		final int type = (int) Long.remainderUnsigned(mix(~a), 10);
+		long x = mix(a);
+		if (type < 4) {
+			s.append("bc1q");
+			for (int i = 0; i < 13; i++, x >>>= 5) s.append(BECH32.charAt((int) (x & 31)));
+			x = mix(x ^ a);
+			for (int i = 0; i < 25; i++, x = mix(x)) s.append(BECH32.charAt((int) Long.remainderUnsigned(x, 32)));
+		} else {
+			s.append(type < 6 ? '3' : '1');
+			for (int i = 0; i < 11; i++) {
+				s.append(BASE58.charAt((int) Long.remainderUnsigned(x, 58)));
+				x = Long.divideUnsigned(x, 58);
+			}
+			x = mix(a ^ 0x5DEECE66DL);
+			for (int i = 0; i < 22; i++, x = mix(x)) s.append(BASE58.charAt((int) Long.remainderUnsigned(x, 58)));
+		}
+	}
+
+	private static String type(long a) {
+		final int type = (int) Long.remainderUnsigned(mix(~a), 10);
+		return type < 4 ? "witness_v0_keyhash" : type < 6 ? "scripthash" : "pubkeyhash";
+	}
+
+	/** Returns a pay-to-public-key-hash script whose 20-byte hash depends on the address. */
+	private static String script(long a) {
+		final StringBuilder s = new StringBuilder("76a914");
+		hex(mix(a ^ 1), s);
+		hex(mix(a ^ 2), s);
+		hex(mix(a ^ 3), s);
+		s.setLength(s.length() - 8);
+		return s.append("88ac").toString();
+	}
+
+	/** The finaliser of SplitMix64, a bijection on longs. */
+	private static long mix(long x) {
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 31);
+	}
+
+	/** A row under construction, whose columns are separated by tabs. */
+	private static final class Row {
+		private final StringBuilder s = new StringBuilder();
+
+		void clear() {
+			this.s.setLength(0);
+		}
+
+		StringBuilder next() {
+			if (this.s.length() > 0) this.s.append('\t');
+			return this.s;
+		}
+
+		Row add(String value) {
+			this.next().append(value);
+			return this;
+		}
+
+		Row add(long value) {
+			this.next().append(value);
+			return this;
+		}
+
+		Row addUsd(long satoshis) {
+			final long cents = Math.round(satoshis * PRICE / 1e6);
+			this.next().append(cents / 100).append('.').append((char) ('0' + cents / 10 % 10)).append((char) ('0' + cents % 10));
+			return this;
+		}
+	}
+
+	/** A file of lines that counts the bytes written. */
+	private static final class Counting implements AutoCloseable {
+		private final Writer out;
+		private long bytes;
+
+		Counting(Path file) throws IOException {
+			this.out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII), 1 << 20);
+		}
+
+		void line(CharSequence s) throws IOException {
+			this.out.append(s).append('\n');
+			this.bytes += s.length() + 1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(DumpGenerator.class.getName(), "Write a synthetic Blockchair dump (inputs, outputs, transactions, and the lists of addresses and transactions) to the given directory, with a configuration file pointing the tools to it.",
+				new Parameter[]{
+						new FlaggedOption("transactions", JSAP.LONG_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 't', "transactions", "The number of transactions."),
+						new FlaggedOption("bytes", JSAP.STRING_PARSER, "100M", JSAP.NOT_REQUIRED, 'b', "bytes", "The approximate size of the dump (with suffix K, M, G or T), if the number of transactions is not given."),
+						new FlaggedOption("perDay", JSAP.INTEGER_PARSER, "300000", JSAP.NOT_REQUIRED, 'd', "per-day", "The number of transactions of each day, that is, of each file."),
+						new FlaggedOption("reuse", JSAP.DOUBLE_PARSER, "0.5", JSAP.NOT_REQUIRED, 'r', "reuse", "The probability that an output reuses an older address."),
+						new FlaggedOption("seed", JSAP.LONG_PARSER, "0", JSAP.NOT_REQUIRED, 's', "seed", "The seed."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of days generated in parallel."),
+						new UnflaggedOption("directory", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The directory of the dump."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final long numTransactions = jsapResult.contains("transactions") ? jsapResult.getLong("transactions") : Math.max(1, parseSize(jsapResult.getString("bytes")) / BYTES_PER_TRANSACTION);
+		final Path directory = Paths.get(jsapResult.getString("directory"));
+		final DumpGenerator generator = new DumpGenerator(numTransactions, jsapResult.getInt("perDay"), jsapResult.getDouble("reuse"), jsapResult.getLong("seed"));
+		final long bytes = generator.write(directory, jsapResult.getInt("threads"));
+
+		System.out.println("Transactions: " + numTransactions);
+		System.out.println("Addresses: " + generator.numAddresses);
+		System.out.println("Bytes: " + bytes);
+		System.out.println("Configuration: " + configuration(directory));
+	}
+
+	private static long parseSize(String size) {
+		final int shift = "KMGT".indexOf(Character.toUpperCase(size.charAt(size.length() - 1)));
+		return shift == -1 ? Long.parseLong(size) : Long.parseLong(size.substring(0, size.length() - 1)) << 10 * (shift + 1);
+	}
+}
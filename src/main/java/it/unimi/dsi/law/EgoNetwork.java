@@ -0,0 +1,190 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.FileLinesMutableStringIterable;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.ImmutableSequentialGraph;
+import it.unimi.dsi.webgraph.NodeIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Extracts the subgraph induced by the nodes within a given number of hops from a set of seed addresses,
+ * following arcs forward and, if the transpose is given, backward. Nodes whose degree in the direction being
+ * followed exceeds a cap (typically, exchanges and other services) are included but not expanded.
+ *
+ * <p>Graphs are memory-mapped, and seeds and nodes are mapped to address ids and back by random access to the
+ * memory-mapped ids and their inverse (see {@link Utils#nodes(Path, long)}), so that only the neighbourhood
+ * of the seeds is read. */
+public class EgoNetwork {
+	private static final Logger logger = LoggerFactory.getLogger(EgoNetwork.class);
+	private static final ProgressLogger pl = new ProgressLogger(logger);
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(EgoNetwork.class.getName(), "Extract the subgraph induced by the nodes within k hops from the given addresses, storing it as a graph (with the original node " +
+				"and the address id of each of its nodes in '.nodes' and '.ids') or as a list of arcs between addresses.",
+				new Parameter[]{
+						new FlaggedOption("hops", JSAP.INTEGER_PARSER, "2", JSAP.NOT_REQUIRED, 'k', "hops", "The number of hops."),
+						new FlaggedOption("cap", JSAP.INTEGER_PARSER, Integer.toString(Integer.MAX_VALUE), JSAP.NOT_REQUIRED, 'c', "cap", "Nodes with a larger degree are not expanded."),
+						new FlaggedOption("transposed", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 't', "transposed", "The basename of the transposed graph, to follow arcs backward too."),
+						new FlaggedOption("addressMap", JSAP.STRING_PARSER, addressesMapFile.toString(), JSAP.NOT_REQUIRED, 'm', "address-map", "The map from addresses to address ids."),
+						new FlaggedOption("ids", JSAP.STRING_PARSER, ids.toString(), JSAP.NOT_REQUIRED, 'I', "ids", "The address id of each node."),
+						new FlaggedOption("addresses", JSAP.STRING_PARSER, addressesFile.toString(), JSAP.NOT_REQUIRED, 'a', "addresses", "The file with all the addresses, one per address id, used to write arcs between addresses."),
+						new Switch("arcs", 'l', "arcs", "Write the subgraph as a list of arcs between addresses, one per line, separated by a tab."),
+						new UnflaggedOption("basename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the graph."),
+						new UnflaggedOption("seeds", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "A file with one seed address per line."),
+						new UnflaggedOption("output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the subgraph, or the file of arcs."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final ImmutableGraph graph = ImmutableGraph.loadMapped(jsapResult.getString("basename"), pl);
+		final ImmutableGraph transposed = jsapResult.contains("transposed") ? ImmutableGraph.loadMapped(jsapResult.getString("transposed"), pl) : null;
+		final Path idsFile = Paths.get(jsapResult.getString("ids"));
+
+		final List<byte[]> addresses = new ObjectArrayList<>();
+		for (MutableString line : new FileLinesMutableStringIterable(jsapResult.getString("seeds"))) {
+			if (line.trim().length() > 0) addresses.add(line.toString().getBytes());
+		}
+
+		final GOV3Function<byte[]> addressMap;
+		try {
+			addressMap = (GOV3Function<byte[]>) BinIO.loadObject(jsapResult.getString("addressMap"));
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+
+		final IntArrayList seeds = new IntArrayList();
+		final int[] resolved = Utils.addressesToNodes(addresses, addressMap, Utils.nodes(idsFile, addressMap.size64()));
+		for (int i = 0; i < resolved.length; i++) {
+			if (resolved[i] == -1) logger.warn("Address " + new String(addresses.get(i)) + " is not in the graph");
+			else seeds.add(resolved[i]);
+		}
+
+		final int[] nodes = expand(graph, transposed, seeds.toIntArray(), jsapResult.getInt("hops"), jsapResult.getInt("cap"));
+		final ByteBufferLongBigList idOfNode = Utils.mapLongs(idsFile);
+		final long[] nodeIds = new long[nodes.length];
+		for (int i = 0; i < nodes.length; i++) nodeIds[i] = idOfNode.getLong(nodes[i]);
+		final String output = jsapResult.getString("output");
+
+		if (jsapResult.getBoolean("arcs")) {
+			try (LineIndex lines = LineIndex.load(Paths.get(jsapResult.getString("addresses")));
+				 PrintStream out = new PrintStream(new FastBufferedOutputStream(Files.newOutputStream(Paths.get(output))))) {
+				final String[] names = new String[nodes.length];
+				for (int i = 0; i < nodes.length; i++) names[i] = lines.line(nodeIds[i]);
+
+				for (int i = 0; i < nodes.length; i++) {
+					final int[] successors = graph.successorArray(nodes[i]);
+					for (int j = 0, d = graph.outdegree(nodes[i]); j < d; j++) {
+						final int k = Arrays.binarySearch(nodes, successors[j]);
+						if (k >= 0) out.println(names[i] + "\t" + names[k]);
+					}
+				}
+			}
+		} else {
+			store(graph, nodes, output);
+			BinIO.storeInts(nodes, output + ".nodes");
+			BinIO.storeLongs(nodeIds, output + ".ids");
+		}
+	}
+
+	/** Returns the sorted nodes within the given number of hops from the seeds.
+	 *
+	 * @param transposed the transposed graph, or <code>null</code> to follow arcs only forward. */
+	public static int[] expand(ImmutableGraph graph, ImmutableGraph transposed, int[] seeds, int hops, int cap) {
+		final IntOpenHashSet visited = new IntOpenHashSet(seeds);
+		IntArrayList frontier = new IntArrayList(visited);
+
+		for (int hop = 0; hop < hops && !frontier.isEmpty(); hop++) {
+			final IntArrayList next = new IntArrayList();
+			for (int node : frontier) {
+				visit(graph, node, cap, visited, next);
+				if (transposed != null) visit(transposed, node, cap, visited, next);
+			}
+
+			logger.info("Hop " + (hop + 1) + ": " + next.size() + " new nodes, " + visited.size() + " in total");
+			frontier = next;
+		}
+
+		final int[] nodes = visited.toIntArray();
+		IntArrays.parallelQuickSort(nodes);
+		return nodes;
+	}
+
+	private static void visit(ImmutableGraph graph, int node, int cap, IntOpenHashSet visited, IntArrayList next) {
+		final int d = graph.outdegree(node);
+		if (d > cap) return;
+
+		final int[] successors = graph.successorArray(node);
+		for (int j = 0; j < d; j++) if (visited.add(successors[j])) next.add(successors[j]);
+	}
+
+	/** Stores the subgraph induced by the given sorted nodes, renumbered by their position. */
+	private static void store(ImmutableGraph graph, int[] nodes, String basename) throws IOException {
+		BVGraph.store(new ImmutableSequentialGraph() {
+			@Override
+			public int numNodes() {
+				return nodes.length;
+			}
+
+			@Override
+			public NodeIterator nodeIterator() {
+				return new NodeIterator() {
+					private int i = 0;
+					private int outdegree;
+					private int[] successors = IntArrays.EMPTY_ARRAY;
+
+					@Override
+					public boolean hasNext() {
+						return this.i < nodes.length;
+					}
+
+					@Override
+					public int nextInt() {
+						final int[] original = graph.successorArray(nodes[this.i]);
+						final int d = graph.outdegree(nodes[this.i]);
+						this.successors = IntArrays.ensureCapacity(this.successors, d, 0);
+						this.outdegree = 0;
+						for (int j = 0; j < d; j++) {
+							final int k = Arrays.binarySearch(nodes, original[j]);
+							if (k >= 0) this.successors[this.outdegree++] = k;
+						}
+						return this.i++;
+					}
+
+					@Override
+					public int outdegree() {
+						return this.outdegree;
+					}
+
+					@Override
+					public int[] successorArray() {
+						return this.successors;
+					}
+				};
+			}
+		}, basename, pl);
+	}
+}
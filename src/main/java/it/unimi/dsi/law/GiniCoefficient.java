@@ -1,34 +1,28 @@
 package it.unimi.dsi.law;
 
 import com.martiansoftware.jsap.*;
-import it.unimi.dsi.fastutil.doubles.DoubleArrays;
-import it.unimi.dsi.fastutil.io.BinIO;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
 
 public class GiniCoefficient {
 	public static void main(String[] args) throws IOException, JSAPException {
-		final SimpleJSAP jsap = new SimpleJSAP(TransactionDegree.class.getName(), "Compute the Gini coefficient for the given double values. Note that this implementation works in parallel to initially sort the given values and then uses an alternative formula for the Gini coefficient which works in linear time.",
+		final SimpleJSAP jsap = new SimpleJSAP(GiniCoefficient.class.getName(), "Compute the Gini coefficient for the given values. Integral values (e.g., degrees) are counted in a single parallel pass over the memory-mapped values, " +
+				"while real values are sorted in parallel; then an alternative formula for the Gini coefficient which works in linear time is used.",
 				new Parameter[]{
-						new UnflaggedOption("values", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The values of which to compute the gini coefficient as doubles."),
+						new FlaggedOption("type", JSAP.STRING_PARSER, "double", JSAP.NOT_REQUIRED, 't', "type", "The type of the values (int, long, float or double)."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+						new UnflaggedOption("values", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The values of which to compute the gini coefficient in binary form."),
 				}
 		);
 
 		final JSAPResult jsapResult = jsap.parse(args);
 		if (jsap.messagePrinted()) System.exit(1);
 
-		final double[] values = BinIO.loadDoubles(jsapResult.getString("values"));
-		DoubleArrays.parallelRadixSort(values);
-		System.out.printf("%,f\n", gini(values));
-	}
-
-	static double gini(double[] values) {
-		double n = values.length;
-		double sum = 0, sum_i = 0;
-		for (int i = 0; i < n; i++) {
-			sum += values[i];
-			sum_i += i * values[i];
+		final MappedVector.Type type = MappedVector.Type.valueOf(jsapResult.getString("type").toUpperCase(Locale.ROOT));
+		try (MappedVector values = new MappedVector(Paths.get(jsapResult.getString("values")), type)) {
+			System.out.printf("%,f\n", VectorStatistics.gini(values, jsapResult.getInt("threads")));
 		}
-		return (2 / n) * (sum_i / sum) - ((n + 1) / n);
 	}
 }
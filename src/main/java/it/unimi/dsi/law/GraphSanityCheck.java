@@ -0,0 +1,162 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.law.graph.MappingTables;
+import it.unimi.dsi.law.graph.TransactionsDatabase;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.NodeIterator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Checks exhaustively that the address graph contains exactly the arcs implied by the transactions, that is,
+ * an arc from every input address to every output address of each transaction.
+ *
+ * <p>Transactions are checked in parallel over ranges of ids: the sorted nodes of the distinct outputs of a
+ * transaction are intersected with the sorted successors of each of its inputs by galloping, and every arc found is
+ * marked in a bitset over the arcs of the graph. Pairs of distinct input and output addresses that are not found
+ * (including those involving addresses that are not in the graph) are <em>missing</em>; at the end, arcs that were
+ * never marked are <em>spurious</em>. */
+public class GraphSanityCheck {
+	/** The number of missing arcs that are logged in full. */
+	private static final int MAX_REPORTED = 10;
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(GraphSanityCheck.class.getName(), "Check every input/output pair of every transaction against the address graph, counting missing and spurious arcs.",
+				new Parameter[]{
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final int threads = jsapResult.getInt("threads");
+		final ProgressLogger progress = Utils.getProgressLogger(GraphSanityCheck.class, "transactions");
+
+		GOV3Function<byte[]> addressMap = MappingTables.buildAddressesMap();
+		GOV3Function<byte[]> transactionMap = MappingTables.buildTransactionsMap();
+		TransactionsDatabase transactions = new TransactionsDatabase(addressMap, transactionMap);
+		final long numTransactions = transactionMap.size64();
+
+		final ImmutableGraph graph = ImmutableGraph.load(basename.toString(), progress);
+		final int n = graph.numNodes();
+
+		// The node of each address id, and the index of the first arc of each node
+		final int[][] nodes = IntBigArrays.newBigArray(addressMap.size64());
+		BigArrays.fill(nodes, -1);
+		int node = 0;
+		for (LongIterator it = BinIO.asLongIterator(ids.toFile()); it.hasNext(); node++) BigArrays.set(nodes, it.nextLong(), node);
+
+		final long[] firstArc = new long[n + 1];
+		final NodeIterator nodeIterator = graph.nodeIterator();
+		for (int x = 0; x < n; x++) {
+			nodeIterator.nextInt();
+			firstArc[x + 1] = firstArc[x] + nodeIterator.outdegree();
+		}
+
+		final long numArcs = firstArc[n];
+		final AtomicLongArray found = new AtomicLongArray(Math.toIntExact((numArcs + Long.SIZE - 1) / Long.SIZE));
+		final AtomicLong pairs = new AtomicLong(), missing = new AtomicLong(), reported = new AtomicLong();
+
+		progress.expectedUpdates = numTransactions;
+		progress.start("Checking transactions against the graph");
+
+		final List<Callable<Void>> tasks = Utils.ranges(numTransactions, threads, (from, to) -> {
+			final ImmutableGraph g = graph.copy();
+			long p = 0, m = 0, done = 0;
+			int[] targets = IntArrays.EMPTY_ARRAY;
+
+			for (long t = from; t < to; t++) {
+				if (++done == 0x10000) {
+					synchronized (progress) {
+						progress.update(done);
+					}
+					done = 0;
+				}
+
+				final long[] inputAddresses = distinct(transactions.getInputAddresses(t));
+				final long[] outputAddresses = distinct(transactions.getOutputAddresses(t));
+				if (inputAddresses.length == 0 || outputAddresses.length == 0) continue;
+
+				// Distinct addresses have distinct nodes, so the targets are sorted and distinct too
+				int k = 0;
+				targets = IntArrays.ensureCapacity(targets, outputAddresses.length);
+				for (long a : outputAddresses) if (BigArrays.get(nodes, a) != -1) targets[k++] = BigArrays.get(nodes, a);
+				IntArrays.quickSort(targets, 0, k);
+
+				p += (long) inputAddresses.length * outputAddresses.length;
+				for (long a : inputAddresses) {
+					final int source = BigArrays.get(nodes, a);
+					if (source == -1) {
+						m += outputAddresses.length;
+						continue;
+					}
+
+					final int[] successors = g.successorArray(source);
+					final int outdegree = g.outdegree(source);
+					m += outputAddresses.length - k;
+
+					for (int j = 0, pos = 0; j < k; j++) {
+						final int i = Utils.gallop(successors, pos, outdegree, targets[j]);
+						if (i >= 0) {
+							final long arc = firstArc[source] + i;
+							found.getAndUpdate((int) (arc >>> 6), w -> w | 1L << arc);
+							pos = i + 1;
+						} else {
+							pos = -i - 1;
+							m++;
+							if (reported.incrementAndGet() <= MAX_REPORTED) {
+								progress.logger.error("Missing arc from node " + source + " to node " + targets[j] + " in transaction " + t);
+							}
+						}
+					}
+				}
+			}
+
+			synchronized (progress) {
+				progress.update(done);
+			}
+			pairs.addAndGet(p);
+			missing.addAndGet(m);
+			return null;
+		});
+
+		Utils.invokeAll(tasks, threads);
+		progress.done();
+
+		long marked = 0;
+		for (int w = 0; w < found.length(); w++) marked += Long.bitCount(found.get(w));
+
+		System.out.println("Transactions: " + numTransactions);
+		System.out.println("Input/output pairs: " + pairs.get());
+		System.out.println("Arcs: " + numArcs);
+		System.out.println("Missing arcs (pairs not in the graph): " + missing.get());
+		System.out.println("Spurious arcs (arcs not implied by any transaction): " + (numArcs - marked));
+	}
+
+	/** Returns the sorted distinct elements of the given array. */
+	private static long[] distinct(long[] a) {
+		if (a.length < 2) return a;
+		final long[] sorted = a.clone();
+		LongArrays.quickSort(sorted);
+
+		int d = 1;
+		for (int i = 1; i < sorted.length; i++) if (sorted[i] != sorted[d - 1]) sorted[d++] = sorted[i];
+		return d == sorted.length ? sorted : Arrays.copyOf(sorted, d);
+	}
+}
@@ -1,19 +1,15 @@
 package it.unimi.dsi.law;
 
 import com.martiansoftware.jsap.*;
-import it.unimi.dsi.fastutil.floats.FloatArrays;
-import it.unimi.dsi.fastutil.io.BinIO;
-import it.unimi.dsi.logging.ProgressLogger;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 public class HarmonicDiameter {
 	public static void main(String[] args) throws IOException, JSAPException {
 		final SimpleJSAP jsap = new SimpleJSAP(HarmonicDiameter.class.getName(), "Compute the harmonic diameter.",
 				new Parameter[]{
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
 						new UnflaggedOption("harmonic", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The float-list file with the harmonic distances."),
 				}
 		);
@@ -21,11 +17,11 @@ public class HarmonicDiameter {
 		final JSAPResult jsapResult = jsap.parse(args);
 		if (jsap.messagePrinted()) System.exit(1);
 
-		final float[] harmonics = BinIO.loadFloats(jsapResult.getString("harmonic"));
-		double sum = 0;
-		for (double f: harmonics) sum += f;
-		double diameter = harmonics.length * (harmonics.length - 1.0d) / sum;
+		try (MappedVector harmonics = new MappedVector(Paths.get(jsapResult.getString("harmonic")), MappedVector.Type.FLOAT)) {
+			final double sum = VectorStatistics.moments(harmonics, jsapResult.getInt("threads")).sum;
+			double diameter = harmonics.size64() * (harmonics.size64() - 1.0d) / sum;
 
-		System.out.printf("%,f\n", diameter);
+			System.out.printf("%,f\n", diameter);
+		}
 	}
 }
@@ -1,36 +1,31 @@
 package it.unimi.dsi.law;
 
 import com.martiansoftware.jsap.*;
-import it.unimi.dsi.fastutil.Arrays;
-import it.unimi.dsi.fastutil.doubles.DoubleArrays;
 import it.unimi.dsi.fastutil.ints.IntArrays;
-import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
-import it.unimi.dsi.fastutil.objects.ObjectArrays;
-import it.unimi.dsi.io.FileLinesMutableStringIterable;
-import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
-import static it.unimi.dsi.io.FileLinesMutableStringIterable.*;
-
 public class HeavyHitters {
 	private static final Logger logger = LoggerFactory.getLogger(HeavyHitters.class);
 	private static final ProgressLogger pl = new ProgressLogger(logger);
 
-	public static void main(String[] args) throws JSAPException, IOException, ClassNotFoundException {
-		final SimpleJSAP jsap = new SimpleJSAP(HeavyHitters.class.getName(), "Given a mapping from addresses to nodes and a ranking on the nodes find the top addresses according to the rank.",
+	public static void main(String[] args) throws JSAPException, IOException {
+		final SimpleJSAP jsap = new SimpleJSAP(HeavyHitters.class.getName(), "Given a mapping from addresses to nodes and a ranking on the nodes find the top addresses according to the rank. " +
+				"The ranking is memory-mapped and scanned in parallel, and ties are broken in favour of smaller nodes. Addresses are resolved through a line index of the address file, built if missing (see LineIndex).",
 				new Parameter[] {
 						new FlaggedOption("amount", JSAP.INTEGER_PARSER, "10", JSAP.NOT_REQUIRED, 'a', "The number of heavy-hitters to retrieve."),
 						new FlaggedOption("ranking", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'r', "A ranking on the graph as doubles in binary form."),
 						new Switch("floats", 'f', "Use this option if the ranking is a list of floats."),
 						new FlaggedOption("addresses", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, 'o', "A file with all the addresses in string form."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
 						new UnflaggedOption("outputFile", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, false, "File where the heavy-hitters will be written, otherwise stdout.")
 				}
 		);
@@ -38,145 +33,126 @@ public class HeavyHitters {
 		final JSAPResult jsapResult = jsap.parse(args);
 		if (jsap.messagePrinted()) System.exit(1);
 
-		double[] rank;
-		if (jsapResult.getBoolean("floats")) {
-			pl.logger.info("Loading ranking as floats");
-			float[] floatRank = BinIO.loadFloats(jsapResult.getString("ranking"));
-			rank = new double[floatRank.length];
-			for (int i = 0; i < floatRank.length; i++) rank[i] = floatRank[i];
-		} else {
-			pl.logger.info("Loading ranking as doubles");
-			rank = BinIO.loadDoubles(jsapResult.getString("ranking"));
-		}
-
-		final int amount = jsapResult.getInt("amount");
-		final int numNodes = rank.length;
+		final TopK top = top(Paths.get(jsapResult.getString("ranking")), jsapResult.getBoolean("floats"), jsapResult.getInt("amount"), jsapResult.getInt("threads"));
+		final long[] nodes = top.nodes();
+		final double[] values = top.values();
 
-		// The quickselect find the k-th minimum value, we want the k-th maximum
-		final int k = rank.length - amount + 1;
-		pl.start("Finding " + amount + "-th statistics");
-		final double max = new Quickselect().quickselect(ArrayUtils.clone(rank), k);
-		pl.done();
-
-		// Isolate the nodes with a rank above the threshold
-		pl.start("Isolating heavy-hitting nodes");
-		final int[] nodes = new int[amount];
-		boolean duplicates = true;
-		for (int i = 0, j = 0; i < rank.length; i++) {
-			if (rank[i] > max) {
-				nodes[j++] = i;
-			} else if (duplicates && rank[i] == max) {
-				nodes[j++] = i;
-				duplicates = false;
-			}
+		pl.start("Reverse-mapping nodes to addresses");
+		final String[] hh = new String[nodes.length];
+		try (LineIndex addresses = LineIndex.load(Paths.get(jsapResult.getString("addresses")))) {
+			for (int i = 0; i < nodes.length; i++) hh[i] = addresses.line(nodes[i]);
 		}
-
 		pl.done();
 
-		// Find the addresses corresponding to the isolated nodes
-		// Considering that the addressMap is made starting from the addresses themselves,
-		// we can simply find the address associated with node v by checking the v-th row.
+		final PrintStream out = jsapResult.contains("outputFile")
+				? new PrintStream(new FastBufferedOutputStream(Files.newOutputStream(Paths.get(jsapResult.getString("outputFile")))))
+				: System.out;
 
-		pl.start("Reverse-mapping nodes to addresses");
-		pl.expectedUpdates = numNodes;
-		pl.itemsName = "nodes";
-
-		final String[] hh = new String[amount];
-		MutableString address;
-		int current = 0;
-
-		try (FileLinesIterator it = new FileLinesMutableStringIterable(jsapResult.getString("addresses")).iterator()) {
-			for (int addressId = 0; addressId < numNodes; addressId++) {
-				address = it.next();
-				pl.lightUpdate();
-
-				// `nodes` is ordered
-				if (addressId != nodes[current]) continue;
-				hh[current++] = address.toString();
-				if (current >= amount) break;
-			}
-		}
+		for (int i = 0; i < nodes.length; i++)
+			out.println(hh[i] + " (" + values[i] + ")");
 
-		pl.done();
+		if (out != System.out) out.close();
+	}
 
-		Arrays.quickSort(0, nodes.length, (i, j) -> Double.compare(rank[nodes[i]], rank[nodes[j]]), (a, b) -> {
-			ObjectArrays.swap(hh, a, b);
-			IntArrays.swap(nodes, a, b);
-		});
+	/** Returns the <code>k</code> nodes with the highest rank in the given binary file of floats or doubles,
+	 * scanning chunks of the memory-mapped file in parallel. */
+	public static TopK top(Path ranking, boolean floats, int k, int threads) throws IOException {
+		try (MappedVector rank = new MappedVector(ranking, floats ? MappedVector.Type.FLOAT : MappedVector.Type.DOUBLE)) {
+			pl.start("Finding the top " + k + " nodes");
+			pl.itemsName = "nodes";
+			pl.expectedUpdates = rank.size64();
 
-		if (jsapResult.contains("outputFile")) {
-			try (final FastBufferedOutputStream fbos = new FastBufferedOutputStream(Files.newOutputStream(Paths.get(jsapResult.getString("outputFile"))))) {
-				for (int i = nodes.length - 1; i >= 0; i--)
-					fbos.write((hh[i] + " (" + rank[nodes[i]] + ")\n").getBytes());
-			}
-		} else {
-			for (int i = nodes.length - 1; i >= 0; i--)
-				System.out.println(hh[i] + " (" + rank[nodes[i]] + ")");
+			final TopK top = new TopK(k);
+			for (TopK partial : rank.scan(() -> new TopK(k), threads, pl)) top.merge(partial);
+			pl.done();
+
+			return top;
 		}
 	}
 
-	private static class Quickselect {
-		/** @credits <a href="https://github.com/JohnKurlak/Algorithms">John Kurlak</a> */
+	/** A bounded min-heap keeping the <code>k</code> best (node, value) pairs offered so far, where
+	 * larger values are better and ties are broken in favour of smaller nodes. NaNs are ignored. */
+	public static final class TopK implements MappedVector.Visitor {
+		private final long[] nodes;
+		private final double[] values;
+		private int size;
 
-		public Double quickselect(double[] list, int k) {
-			return this.quickselect(list, 0, list.length - 1, k);
+		public TopK(int k) {
+			this.nodes = new long[k];
+			this.values = new double[k];
 		}
 
-		public Double quickselect(double[] list, int leftIndex, int rightIndex, int k) {
-			// Edge case
-			if (k < 1 || k > list.length)
-				return null;
-
-			// Base case
-			if (leftIndex == rightIndex)
-				return list[leftIndex];
-
-			// Partition the sublist into two halves
-			int pivotIndex = this.randomPartition(list, leftIndex, rightIndex);
-			int sizeLeft = pivotIndex - leftIndex + 1;
-
-			// Perform comparisons and recurse in binary search / quicksort fashion
-			if (sizeLeft == k) {
-				return list[pivotIndex];
-			} else if (sizeLeft > k) {
-				return this.quickselect(list, leftIndex, pivotIndex - 1, k);
-			}
-
-			return this.quickselect(list, pivotIndex + 1, rightIndex, k - sizeLeft);
+		/** Returns whether the pair (a, x) is worse than the pair (b, y). */
+		private static boolean worse(double x, long a, double y, long b) {
+			return x < y || x == y && a > b;
 		}
 
-		public int randomPartition(double[] list, int leftIndex, int rightIndex) {
-			int pivotIndex = this.medianOf3(list, leftIndex, rightIndex);
-			double pivotValue = list[pivotIndex];
-			int storeIndex = leftIndex;
-
-			DoubleArrays.swap(list, pivotIndex, rightIndex);
-
-			for (int i = leftIndex; i < rightIndex; i++) {
-				if (list[i] <= pivotValue) {
-					DoubleArrays.swap(list, storeIndex, i);
-					storeIndex++;
+		public void offer(long node, double value) {
+			if (Double.isNaN(value) || this.nodes.length == 0) return;
+
+			if (this.size < this.nodes.length) {
+				int i = this.size++;
+				// Sift up
+				while (i > 0) {
+					final int parent = (i - 1) >>> 1;
+					if (!worse(value, node, this.values[parent], this.nodes[parent])) break;
+					this.nodes[i] = this.nodes[parent];
+					this.values[i] = this.values[parent];
+					i = parent;
 				}
+				this.nodes[i] = node;
+				this.values[i] = value;
+				return;
 			}
 
-			DoubleArrays.swap(list, rightIndex, storeIndex);
-			return storeIndex;
+			if (worse(value, node, this.values[0], this.nodes[0])) return;
+
+			// Replace the root and sift down
+			int i = 0;
+			for (;;) {
+				int child = 2 * i + 1;
+				if (child >= this.size) break;
+				if (child + 1 < this.size && worse(this.values[child + 1], this.nodes[child + 1], this.values[child], this.nodes[child])) child++;
+				if (!worse(this.values[child], this.nodes[child], value, node)) break;
+				this.nodes[i] = this.nodes[child];
+				this.values[i] = this.values[child];
+				i = child;
+			}
+			this.nodes[i] = node;
+			this.values[i] = value;
 		}
 
-		public int medianOf3(double[] list, int leftIndex, int rightIndex) {
-			int centerIndex = (int) (((long) leftIndex + (long) rightIndex) / 2);
+		@Override
+		public void visit(long index, double value) {
+			this.offer(index, value);
+		}
 
-			if (list[leftIndex] > list[rightIndex])
-				DoubleArrays.swap(list, leftIndex, centerIndex);
+		public void merge(TopK other) {
+			for (int i = 0; i < other.size; i++) this.offer(other.nodes[i], other.values[i]);
+		}
 
-			if (list[leftIndex] > list[rightIndex])
-				DoubleArrays.swap(list, leftIndex, rightIndex);
+		/** Returns the order in which pairs must be read to go from the best to the worst. */
+		private int[] order() {
+			final int[] perm = new int[this.size];
+			for (int i = 0; i < perm.length; i++) perm[i] = i;
+			IntArrays.quickSort(perm, (i, j) -> i == j ? 0 : worse(this.values[i], this.nodes[i], this.values[j], this.nodes[j]) ? 1 : -1);
+			return perm;
+		}
 
-			if (list[centerIndex] > list[rightIndex])
-				DoubleArrays.swap(list, centerIndex, rightIndex);
+		/** Returns the nodes kept, from the best to the worst. */
+		public long[] nodes() {
+			final int[] order = this.order();
+			final long[] nodes = new long[order.length];
+			for (int i = 0; i < order.length; i++) nodes[i] = this.nodes[order[i]];
+			return nodes;
+		}
 
-			DoubleArrays.swap(list, centerIndex, rightIndex - 1);
-			return rightIndex - 1;
+		/** Returns the values kept, from the best to the worst. */
+		public double[] values() {
+			final int[] order = this.order();
+			final double[] values = new double[order.length];
+			for (int i = 0; i < order.length; i++) values[i] = this.values[order[i]];
+			return values;
 		}
 	}
 }
@@ -0,0 +1,242 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.bits.Fast;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.io.ByteBufferInputStream;
+import it.unimi.dsi.io.InputBitStream;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.NodeIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Properties;
+
+/** An Elias&ndash;Fano index over the label stream of a labelled transaction graph, giving random access
+ * to the labels of any node or arc without going through the sequential bit stream.
+ *
+ * <p>Each label is stored as the &gamma;-coded number of transactions followed by the transactions
+ * themselves, each of the width declared in the label specification. The index keeps, for each node,
+ * the bit offset of its first label and the (global) index of its first arc. */
+public class LabelIndex {
+	private static final Logger logger = LoggerFactory.getLogger(LabelIndex.class);
+	private static final ProgressLogger pl = new ProgressLogger(logger);
+
+	public static final String BIT_OFFSETS_EXTENSION = ".labelbitoffsets";
+	public static final String ARC_OFFSETS_EXTENSION = ".labelarcoffsets";
+
+	private final EliasFanoMonotoneLongBigList bitOffsets;
+	private final EliasFanoMonotoneLongBigList arcOffsets;
+	private final ByteBufferInputStream labels;
+	private final int width;
+
+	private LabelIndex(EliasFanoMonotoneLongBigList bitOffsets, EliasFanoMonotoneLongBigList arcOffsets, ByteBufferInputStream labels, int width) {
+		this.bitOffsets = bitOffsets;
+		this.arcOffsets = arcOffsets;
+		this.labels = labels;
+		this.width = width;
+	}
+
+	public static boolean exists(String basename) {
+		return new File(basename + BIT_OFFSETS_EXTENSION).exists() && new File(basename + ARC_OFFSETS_EXTENSION).exists();
+	}
+
+	/** Loads the index of the given labelled graph and memory-maps its labels. */
+	public static LabelIndex load(String basename) throws IOException {
+		final EliasFanoMonotoneLongBigList bitOffsets, arcOffsets;
+		try {
+			bitOffsets = (EliasFanoMonotoneLongBigList) BinIO.loadObject(basename + BIT_OFFSETS_EXTENSION);
+			arcOffsets = (EliasFanoMonotoneLongBigList) BinIO.loadObject(basename + ARC_OFFSETS_EXTENSION);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+
+		try (FileChannel channel = FileChannel.open(Paths.get(basename + ".labels"), StandardOpenOption.READ)) {
+			return new LabelIndex(bitOffsets, arcOffsets, ByteBufferInputStream.map(channel), transactionWidth(basename));
+		}
+	}
+
+	/** Returns the width in bits of each transaction, as declared by the label specification of the graph. */
+	public static int transactionWidth(String basename) throws IOException {
+		final Properties p = properties(basename);
+		final String labelSpec = p.getProperty("labelspec");
+		final String labelSize = labelSpec.substring(labelSpec.lastIndexOf(',') + 1, labelSpec.length() - 1);
+		return Integer.parseInt(labelSize.trim());
+	}
+
+	/** Returns the basename of the graph underlying the given labelled graph. */
+	public static String underlyingBasename(String basename) throws IOException {
+		final Properties p = properties(basename);
+		return new File(basename).getAbsoluteFile().getParentFile().toPath().resolve(p.getProperty("underlyinggraph")).toString();
+	}
+
+	private static Properties properties(String basename) throws IOException {
+		final Properties p = new Properties();
+		try (InputStream in = Files.newInputStream(Paths.get(basename + ".properties"))) {
+			p.load(in);
+		}
+		return p;
+	}
+
+	/** Scans the labels of the given labelled graph once and stores its index. */
+	public static void build(String basename) throws IOException {
+		final int width = transactionWidth(basename);
+		final ImmutableGraph g = ImmutableGraph.loadOffline(underlyingBasename(basename));
+		final int n = g.numNodes();
+
+		final Path directory = new File(basename).getAbsoluteFile().getParentFile().toPath();
+		final File bitDeltas = Files.createTempFile(directory, "labelindex", ".bits").toFile();
+		final File arcDeltas = Files.createTempFile(directory, "labelindex", ".arcs").toFile();
+		bitDeltas.deleteOnExit();
+		arcDeltas.deleteOnExit();
+
+		pl.start("Indexing labels");
+		pl.itemsName = "nodes";
+		pl.expectedUpdates = n;
+
+		long bitOffset = 0, arcOffset = 0;
+		try (InputBitStream ibs = new InputBitStream(basename + ".labels");
+			 OutputBitStream bits = new OutputBitStream(bitDeltas);
+			 OutputBitStream arcs = new OutputBitStream(arcDeltas)) {
+			final NodeIterator it = g.nodeIterator();
+
+			for (int i = 0; i < n; i++) {
+				it.nextInt();
+				final int outdegree = it.outdegree();
+				long nodeBits = 0;
+
+				for (int j = 0; j < outdegree; j++) {
+					final int length = ibs.readGamma();
+					final long size = (long) length * width;
+					ibs.skip(size);
+					nodeBits += 2L * Fast.mostSignificantBit(length + 1L) + 1 + size;
+				}
+
+				bits.writeLongGamma(nodeBits);
+				arcs.writeGamma(outdegree);
+				bitOffset += nodeBits;
+				arcOffset += outdegree;
+
+				pl.lightUpdate();
+			}
+		}
+		pl.done();
+
+		BinIO.storeObject(new EliasFanoMonotoneLongBigList(n + 1, bitOffset + 1, Utils.prefixSums(bitDeltas, n)), basename + BIT_OFFSETS_EXTENSION);
+		BinIO.storeObject(new EliasFanoMonotoneLongBigList(n + 1, arcOffset + 1, Utils.prefixSums(arcDeltas, n)), basename + ARC_OFFSETS_EXTENSION);
+
+		bitDeltas.delete();
+		arcDeltas.delete();
+	}
+
+	public int numNodes() {
+		return (int) (this.bitOffsets.size64() - 1);
+	}
+
+	public long numArcs() {
+		return this.arcOffsets.getLong(this.arcOffsets.size64() - 1);
+	}
+
+	/** Returns the global index of the first arc of the given node (or the number of arcs if <code>node</code> is the number of nodes). */
+	public long firstArc(int node) {
+		return this.arcOffsets.getLong(node);
+	}
+
+	public int outdegree(int node) {
+		return (int) this.arcOffsets.getDelta(node);
+	}
+
+	public int width() {
+		return this.width;
+	}
+
+	/** Returns a new reader on the labels; readers are not thread safe, but any number of them can be used concurrently. */
+	public Reader reader() {
+		return new Reader();
+	}
+
+	public class Reader {
+		private final InputBitStream ibs = new InputBitStream(LabelIndex.this.labels.copy(), 4096);
+
+		/** Positions the reader on the first label of the given node. */
+		public void position(int node) throws IOException {
+			this.ibs.position(LabelIndex.this.bitOffsets.getLong(node));
+		}
+
+		/** Reads the number of transactions of the next label and skips them. */
+		public int skipLabel() throws IOException {
+			final int length = this.ibs.readGamma();
+			this.ibs.skip((long) length * LabelIndex.this.width);
+			return length;
+		}
+
+		/** Reads the transactions of the next label. */
+		public long[] nextLabel() throws IOException {
+			final long[] transactions = new long[this.ibs.readGamma()];
+			for (int i = 0; i < transactions.length; i++) transactions[i] = this.ibs.readLong(LabelIndex.this.width);
+			return transactions;
+		}
+
+		/** Returns the transactions of the given arc of a node, where arcs are numbered in successor order. */
+		public long[] label(int node, int arc) throws IOException {
+			if (arc < 0 || arc >= LabelIndex.this.outdegree(node)) throw new IndexOutOfBoundsException("Node " + node + " has no arc " + arc);
+			this.position(node);
+			for (int j = 0; j < arc; j++) this.skipLabel();
+			return this.nextLabel();
+		}
+
+		/** Returns the transactions of all the arcs of a node, in successor order. */
+		public long[][] labels(int node) throws IOException {
+			final long[][] labels = new long[LabelIndex.this.outdegree(node)][];
+			this.position(node);
+			for (int j = 0; j < labels.length; j++) labels[j] = this.nextLabel();
+			return labels;
+		}
+
+		/** Returns the transactions on the arc from <code>source</code> to <code>target</code> of the given
+		 * random-access underlying graph, or <code>null</code> if there is no such arc. */
+		public long[] label(ImmutableGraph graph, int source, int target) throws IOException {
+			final int arc = Arrays.binarySearch(graph.successorArray(source), 0, graph.outdegree(source), target);
+			return arc < 0 ? null : this.label(source, arc);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(LabelIndex.class.getName(), "Build an Elias-Fano index over the labels of the given labelled transaction graph, stored with extensions '" +
+				BIT_OFFSETS_EXTENSION + "' and '" + ARC_OFFSETS_EXTENSION + "'. If an arc is given, its transactions are printed using the index, which is built only if missing.",
+				new Parameter[]{
+						new FlaggedOption("source", JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 's', "source", "The source of the arc to look up."),
+						new FlaggedOption("target", JSAP.INTEGER_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 't', "target", "The target of the arc to look up."),
+						new UnflaggedOption("basename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the labelled transaction graph."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final String basename = jsapResult.getString("basename");
+		final boolean lookup = jsapResult.contains("source") && jsapResult.contains("target");
+
+		if (!lookup || !exists(basename)) build(basename);
+		if (!lookup) return;
+
+		final int source = jsapResult.getInt("source"), target = jsapResult.getInt("target");
+		final ImmutableGraph graph = ImmutableGraph.load(underlyingBasename(basename));
+		final long[] transactions = load(basename).reader().label(graph, source, target);
+
+		if (transactions == null) System.out.println("No arc " + source + " -> " + target);
+		else System.out.println(source + " -> " + target + ": " + Arrays.toString(transactions));
+	}
+}
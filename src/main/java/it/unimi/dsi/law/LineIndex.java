@@ -0,0 +1,139 @@
+package it.unimi.dsi.law;
+
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Random access to the lines of a text file, such as the list of addresses whose i-th line is the address
+ * of node i, through an Elias&ndash;Fano index of the line offsets stored next to the file.
+ *
+ * <p>Lines are read with positional reads, so an instance can be shared by any number of threads. */
+public class LineIndex implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(LineIndex.class);
+	public static final String EXTENSION = ".lineoffsets";
+
+	/** The offset of the start of each line, followed by the offset one past the end of the last newline. */
+	private final EliasFanoMonotoneLongBigList offsets;
+	private final FileChannel channel;
+
+	private LineIndex(EliasFanoMonotoneLongBigList offsets, FileChannel channel) {
+		this.offsets = offsets;
+		this.channel = channel;
+	}
+
+	/** Opens the given file, building its index first if missing or stale, that is, older than the file or not
+	 * covering exactly its bytes, as it happens when the file was regenerated with a different number of lines. */
+	public static LineIndex load(Path file) throws IOException {
+		final Path indexFile = Paths.get(file + EXTENSION);
+		if (!Files.exists(indexFile) || Files.getLastModifiedTime(indexFile).compareTo(Files.getLastModifiedTime(file)) < 0) build(file);
+
+		EliasFanoMonotoneLongBigList offsets = loadOffsets(indexFile);
+		if (!covers(offsets, Files.size(file))) {
+			logger.info("The index of " + file + " does not match its " + (offsets.size64() - 1) + " lines; rebuilding it");
+			build(file);
+			offsets = loadOffsets(indexFile);
+		}
+
+		return new LineIndex(offsets, FileChannel.open(file, StandardOpenOption.READ));
+	}
+
+	private static EliasFanoMonotoneLongBigList loadOffsets(Path indexFile) throws IOException {
+		try {
+			return (EliasFanoMonotoneLongBigList) BinIO.loadObject(indexFile.toFile());
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Returns whether the lines of an index end where a file of the given length does (one byte later if its last
+	 * line has no newline). */
+	private static boolean covers(EliasFanoMonotoneLongBigList offsets, long length) {
+		final long end = offsets.getLong(offsets.size64() - 1);
+		return end == length || end == length + 1;
+	}
+
+	public static void build(Path file) throws IOException {
+		final ProgressLogger pl = Utils.getProgressLogger(LineIndex.class, "lines");
+		final File deltas = Files.createTempFile(file.toAbsolutePath().getParent(), "lineindex", ".deltas").toFile();
+		deltas.deleteOnExit();
+
+		pl.start("Indexing lines of " + file);
+		long lines = 0, total = 0, length = 0;
+		final byte[] buffer = new byte[1 << 16];
+
+		try (InputStream in = new FastBufferedInputStream(Files.newInputStream(file));
+			 OutputBitStream obs = new OutputBitStream(deltas)) {
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				for (int i = 0; i < read; i++) {
+					length++;
+					if (buffer[i] != '\n') continue;
+
+					obs.writeLongGamma(length);
+					total += length;
+					length = 0;
+					lines++;
+					pl.lightUpdate();
+				}
+			}
+
+			// A last line without a newline behaves as if it had one
+			if (length > 0) {
+				obs.writeLongGamma(length + 1);
+				total += length + 1;
+				lines++;
+			}
+		}
+		pl.done();
+
+		BinIO.storeObject(new EliasFanoMonotoneLongBigList(lines + 1, total + 1, Utils.prefixSums(deltas, lines)), file + EXTENSION);
+		deltas.delete();
+		logger.info("Indexed " + lines + " lines of " + file);
+	}
+
+	public long size64() {
+		return this.offsets.size64() - 1;
+	}
+
+	/** Returns the bytes of the given line, without the line terminator. */
+	public byte[] lineBytes(long line) throws IOException {
+		final long start = this.offsets.getLong(line);
+		int length = (int) (this.offsets.getLong(line + 1) - start - 1);
+		length = (int) Math.min(length, this.channel.size() - start);
+
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, start + buffer.position()) < 0) break;
+		}
+
+		if (length > 0 && buffer.get(length - 1) == '\r') length--;
+		final byte[] bytes = new byte[length];
+		System.arraycopy(buffer.array(), 0, bytes, 0, length);
+		return bytes;
+	}
+
+	public String line(long line) throws IOException {
+		return new String(this.lineBytes(line), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
@@ -1,9 +1,9 @@
 package it.unimi.dsi.law;
 
 import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.doubles.DoubleBigArrays;
 import it.unimi.dsi.fastutil.io.BinIO;
-import it.unimi.dsi.io.FileLinesMutableStringIterable;
-import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.webgraph.ImmutableGraph;
 import it.unimi.dsi.webgraph.NodeIterator;
@@ -11,17 +11,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.IntToDoubleFunction;
 
 public class LocalClusteringCoefficient {
 	private static final Logger logger = LoggerFactory.getLogger(LocalClusteringCoefficient.class);
 	private static final ProgressLogger pl = new ProgressLogger(logger);
 	private static final String CLUSTERING_EXTENSION = "-clustering.doubles";
+	private static final String HISTOGRAM_EXTENSION = "-clustering.histogram";
 
 	public static void main(String[] args) throws IOException, JSAPException {
 		final SimpleJSAP jsap = new SimpleJSAP(LocalClusteringCoefficient.class.getName(), "Compute the local clustering coefficient for all the nodes in the given graphs according to the number of triangles," +
-				"provided as a file where each row contains the id of a node and its number of triangles, separated by a single space. The results are stored in a file with the same basename with the" +
-				"extension '" + CLUSTERING_EXTENSION + "' as an array of doubles.",
+				"provided as a binary list of doubles (or longs) where the i-th element is the number of triangles of node i. The results are stored in a file with the same basename with the" +
+				"extension '" + CLUSTERING_EXTENSION + "' as an array of doubles, and the histogram of the coefficients as text in '" + HISTOGRAM_EXTENSION + "'.",
 				new Parameter[]{
+						new Switch("longs", 'l', "longs", "The number of triangles is stored as a list of longs instead of doubles."),
+						new FlaggedOption("bins", JSAP.INTEGER_PARSER, "100", JSAP.NOT_REQUIRED, 'b', "bins", "The number of bins of the histogram over [0, 1]."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
 						new UnflaggedOption("basename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the labelled transaction graph."),
 						new UnflaggedOption("triangles", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The file containing the number of triangles for each node."),
 				}
@@ -32,76 +40,101 @@ public class LocalClusteringCoefficient {
 
 		final String basename = jsapResult.getString("basename");
 		final String triangles = jsapResult.getString("triangles");
+		final int bins = jsapResult.getInt("bins");
+		final int threads = jsapResult.getInt("threads");
 		final ImmutableGraph g = ImmutableGraph.load(basename, pl);
 
-		final NodeIterator nodeIterator = g.nodeIterator();
-		final FileLinesMutableStringIterable.FileLinesIterator nodeTriangles = new FileLinesMutableStringIterable(triangles).iterator();
+		final IntToDoubleFunction nodeTriangles;
+		final long length;
+		if (jsapResult.getBoolean("longs")) {
+			final long[][] t = BinIO.loadLongsBig(triangles);
+			nodeTriangles = node -> BigArrays.get(t, node);
+			length = BigArrays.length(t);
+		} else {
+			final double[][] t = BinIO.loadDoublesBig(triangles);
+			nodeTriangles = node -> BigArrays.get(t, node);
+			length = BigArrays.length(t);
+		}
 
-		final double[] localClusteringCoefficient = new double[g.numNodes()];
-		MutableString triangleLine;
+		if (length != g.numNodes()) {
+			pl.logger.error("Mismatch: the graph has " + g.numNodes() + " nodes, but " + length + " triangle counts were provided");
+			System.exit(-1);
+		}
 
-		int overestimates = 0;
+		final double[][] localClusteringCoefficient = DoubleBigArrays.newBigArray(g.numNodes());
 
 		pl.start("Estimating local clustering coefficient");
 		pl.expectedUpdates = g.numNodes();
 		pl.itemsName = "nodes";
 
-		while (nodeIterator.hasNext()) {
-			final int node = nodeIterator.nextInt();
-			final int outdegree = nodeIterator.outdegree();
-			triangleLine = nodeTriangles.next();
+		final List<Callable<Summary>> tasks = new ArrayList<>();
+		for (final NodeIterator nodeIterator : g.splitNodeIterators(threads)) {
+			tasks.add(() -> {
+				final Summary summary = new Summary(bins);
+				long updates = 0;
+
+				while (nodeIterator.hasNext()) {
+					final int node = nodeIterator.nextInt();
+					final int outdegree = nodeIterator.outdegree();
+
+					if (outdegree <= 1) {
+						BigArrays.set(localClusteringCoefficient, node, Double.NaN);
+					} else {
+						final double effectiveTriangles = 2 * nodeTriangles.applyAsDouble(node);
+						final double possibleTriangles = (double) outdegree * (outdegree - 1);
+
+						if (effectiveTriangles > possibleTriangles)
+							summary.overestimates++;
+
+						final double coefficient = Math.min(1, effectiveTriangles / possibleTriangles);
+						BigArrays.set(localClusteringCoefficient, node, coefficient);
+						summary.add(coefficient);
+					}
+
+					if (++updates == 1_000_000) {
+						synchronized (pl) { pl.update(updates); }
+						updates = 0;
+					}
+				}
 
-			if (outdegree <= 1) {
-				localClusteringCoefficient[node] = Double.NaN;
-				continue;
-			}
+				synchronized (pl) { pl.update(updates); }
+				return summary;
+			});
+		}
 
-			int sep = triangleLine.indexOf(' ');
+		final Summary summary = new Summary(bins);
+		for (Summary s : Utils.invokeAll(tasks, threads)) summary.merge(s);
 
-			// Check that the node id is equal to the node in the file
-			if (!triangleLine.subSequence(0, sep).equals(Integer.toString(node))) {
-				pl.logger.error("Mismatch: checking node " + node + ", but got line:\n\t" + triangleLine);
-				System.exit(-1);
-			}
+		pl.done();
+		pl.logger.info(summary.overestimates + " total overestimates over " + g.numNodes() + " nodes");
 
-			// Extract number of triangles
-			triangleLine.delete(0, sep + 1);
+		pl.logger.info("Storing results in " + basename + CLUSTERING_EXTENSION + "...");
+		BinIO.storeDoubles(localClusteringCoefficient, basename + CLUSTERING_EXTENSION);
+		summary.histogram.store(basename + HISTOGRAM_EXTENSION);
 
-			final double effectiveTriangles = 2 * Double.parseDouble(triangleLine.toString());
-			final double possibleTriangles = outdegree * (outdegree - 1);
+		System.out.println("Average clustering coefficient: " + summary.moments.mean());
+		System.out.println("Harmonic clustering coefficient: " + summary.moments.harmonicMean());
+	}
 
-			if (effectiveTriangles > possibleTriangles)
-				overestimates++;
+	/** Running totals over the coefficients that are defined, kept per thread and merged at the end. */
+	private static final class Summary {
+		private final VectorStatistics.Moments moments = new VectorStatistics.Moments();
+		private final VectorStatistics.Histogram histogram;
+		private long overestimates;
 
-			localClusteringCoefficient[node] = Math.min(1, effectiveTriangles / possibleTriangles);
-			pl.lightUpdate();
+		private Summary(int bins) {
+			this.histogram = new VectorStatistics.Histogram(0, 1, bins);
 		}
-		pl.done();
-		pl.logger.info(overestimates + " total overestimates over " + localClusteringCoefficient.length + " nodes");
 
-		pl.logger.info("Storing results in " + basename + CLUSTERING_EXTENSION + "...");
-		BinIO.storeDoubles(localClusteringCoefficient, basename + CLUSTERING_EXTENSION);
+		private void add(double coefficient) {
+			this.moments.add(coefficient, 1);
+			this.histogram.add(coefficient, 1);
+		}
 
-		double average = 0;
-		int count = 0;
-        for (double value : localClusteringCoefficient) {
-            if (!Double.isNaN(value)) {
-                average += value;
-                count++;
-            }
-        }
-		average /= count;
-		System.out.println("Average clustering coefficient: " + average);
-
-		double harmonic = 0;
-		count = 0;
-        for (double v : localClusteringCoefficient) {
-			if (v != 0 && !Double.isNaN(v)) {
-                harmonic += 1 / v;
-            	count++;
-			}
+		private void merge(Summary other) {
+			this.moments.merge(other.moments);
+			this.histogram.merge(other.histogram);
+			this.overestimates += other.overestimates;
 		}
-		harmonic = count / harmonic;
-		System.out.println("Harmonic clustering coefficient: " + harmonic);
 	}
 }
@@ -1,22 +1,26 @@
 package it.unimi.dsi.law;
 
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
 import it.unimi.dsi.fastutil.io.BinIO;
-import it.unimi.dsi.fastutil.longs.Long2ObjectArrayMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectAVLTreeMap;
 import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.law.graph.TransactionsDatabase;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.mph.GOV3Function;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
 import it.unimi.dsi.webgraph.BVGraph;
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import static it.unimi.dsi.law.graph.Parameters.BitcoinColumn.*;
@@ -26,6 +30,7 @@ public class LocalSanityCheck {
 	private static final XoRoShiRo128PlusRandom random = new XoRoShiRo128PlusRandom();
 	private static final ProgressLogger progress = new ProgressLogger(LoggerFactory.getLogger(LocalSanityCheck.class));
 	private static int transactionAmount = 10_000;
+	private static int threads = Runtime.getRuntime().availableProcessors();
 	private static int missingInputsOutputs = 0, missingNodes = 0, notFound = 0;
 
 	public static void main(String[] args) throws IOException, ClassNotFoundException {
@@ -60,10 +65,8 @@ public class LocalSanityCheck {
 		 between error and the case in which the inputs or outputs were not found, it's easier to just skip the
 		 transaction. */
 
-		progress.logger.info("Loading transactions inputs");
-		Long2ObjectArrayMap<LongOpenHashSet> transactionInputs = (Long2ObjectArrayMap<LongOpenHashSet>) BinIO.loadObject(transactionInputsFile.toFile());
-		progress.logger.info("Loading transactions outputs");
-		Long2ObjectArrayMap<LongOpenHashSet> transactionOutputs = (Long2ObjectArrayMap<LongOpenHashSet>) BinIO.loadObject(transactionOutputsFile.toFile());
+		progress.logger.info("Loading transactions inputs and outputs");
+		TransactionsDatabase transactionsDatabase = new TransactionsDatabase(addressesMap, transactionsMap);
 		progress.logger.info("Loading graph");
 		BVGraph graph = BVGraph.load(basename.toString());
 		progress.logger.info("Loading graph ids");
@@ -78,7 +81,7 @@ public class LocalSanityCheck {
 
 		File[] transactionsFiles = transactionsDirectory.toFile().listFiles();
 		if (transactionsFiles == null) throw new NoSuchElementException("No transactions found!");
-		Utils.LineFilter transactionFilter = (line) -> Utils.column(line, 7).equals("0");
+		Utils.LineFilter transactionFilter = (line) -> Utils.column(line, TransactionColumn.IS_COINBASE).equals("0");
 		Utils.TSVIterator transactions = new Utils.TSVIterator(transactionsFiles);
 
 		CharSequence[] randomTransactions = new CharSequence[transactionAmount];
@@ -107,8 +110,8 @@ public class LocalSanityCheck {
 				line = transactions.next();
 			}
 
-			randomTransactions[index] = new MutableString(Utils.column(line, 1));
-			randomTransactionsId[index] = transactionsMap.getLong(Utils.columnBytes(line, 1));
+			randomTransactions[index] = new MutableString(Utils.column(line, TransactionColumn.HASH));
+			randomTransactionsId[index] = transactionsMap.getLong(Utils.columnBytes(line, TransactionColumn.HASH));
 			randomTransactionsFile[index] = transactions.currentFile();
 			index++;
 
@@ -116,58 +119,94 @@ public class LocalSanityCheck {
 		}
 
 		progress.stop();
-		progress.start("Checking transaction inconsistencies");
-		progress.logInterval = TimeUnit.MINUTES.toMillis(30);
-		progress.expectedUpdates = transactionAmount;
 
+		// Group the samples by day, so that each pair of inputs and outputs files is scanned once
+		Object2ObjectAVLTreeMap<String, IntArrayList> samplesByDate = new Object2ObjectAVLTreeMap<>();
 		for (int i = 0; i < transactionAmount; i++) {
-			progress.update();
-
-			long transactionId = randomTransactionsId[i];
-			final CharSequence transaction = randomTransactions[i];
+			String name = randomTransactionsFile[i].getName();
+			samplesByDate.computeIfAbsent(name.substring(name.lastIndexOf("_")), d -> new IntArrayList()).add(i);
+		}
 
-			LongOpenHashSet inputs = transactionInputs.get(transactionId);
-			LongOpenHashSet outputs = transactionOutputs.get(transactionId);
+		progress.start("Scanning the inputs and outputs of " + samplesByDate.size() + " days");
+		progress.itemsName = "days";
+		progress.logInterval = TimeUnit.MINUTES.toMillis(1);
+		progress.expectedUpdates = samplesByDate.size();
 
-			File name = randomTransactionsFile[i];
-			String date = name.getName().substring(name.getName().lastIndexOf("_"));
+		LongOpenHashSet[] inferredInputs = new LongOpenHashSet[transactionAmount];
+		LongOpenHashSet[] inferredOutputs = new LongOpenHashSet[transactionAmount];
+		List<Callable<Void>> tasks = new ArrayList<>();
 
-			Path associatedInput = inputsDirectory.resolve("blockchair_bitcoin_inputs" + date);
-			Path associatedOutput = outputsDirectory.resolve("blockchair_bitcoin_outputs" + date);
+		for (Map.Entry<String, IntArrayList> e : samplesByDate.entrySet()) {
+			Path associatedInput = inputsDirectory.resolve("blockchair_bitcoin_inputs" + e.getKey());
+			Path associatedOutput = outputsDirectory.resolve("blockchair_bitcoin_outputs" + e.getKey());
+			IntArrayList samples = e.getValue();
 
 			if (!associatedInput.toFile().exists() || !associatedOutput.toFile().exists()) {
-				progress.logger.error("Associated input or output not found for " + name);
-				notFound++;
+				progress.logger.error("Associated input or output not found for " + randomTransactionsFile[samples.getInt(0)]);
+				notFound += samples.size();
 				continue;
 			}
 
-			Iterator<MutableString> iterator = Utils.readTSVs(associatedInput);
-			LongOpenHashSet inferredInputs = checkTransaction(transactionsMap, addressesMap, transactionId, iterator, SPENDING_TRANSACTION_HASH);
+			tasks.add(() -> {
+				// The sample of each sampled transaction of the day
+				Long2IntOpenHashMap sampleOf = new Long2IntOpenHashMap(samples.size());
+				sampleOf.defaultReturnValue(-1);
+				for (int i : samples) {
+					sampleOf.put(randomTransactionsId[i], i);
+					inferredInputs[i] = new LongOpenHashSet();
+					inferredOutputs[i] = new LongOpenHashSet();
+				}
 
-			if (!inputs.equals(inferredInputs)) {
-				reportInconsistency("input", inputs, inferredInputs, transactionId, transaction, name, associatedInput);
-			}
+				collectAddresses(transactionsMap, addressesMap, sampleOf, Utils.readTSVs(associatedInput), SPENDING_TRANSACTION_HASH, inferredInputs);
+				Utils.LineFilter filter = (line) -> Utils.column(line, IS_FROM_COINBASE).equals("0");
+				collectAddresses(transactionsMap, addressesMap, sampleOf, Utils.readTSVs(associatedOutput, filter), TRANSACTION_HASH, inferredOutputs);
+
+				synchronized (progress) {
+					progress.update();
+				}
+				return null;
+			});
+		}
+
+		Utils.invokeAll(tasks, threads);
+		progress.done();
 
-			Utils.LineFilter filter = (line) -> Utils.column(line, IS_FROM_COINBASE).equals("0");
-			iterator = Utils.readTSVs(associatedOutput, filter);
-			LongOpenHashSet inferredOutputs = checkTransaction(transactionsMap, addressesMap, transactionId, iterator, TRANSACTION_HASH);
+		// The node of each address id
+		int[][] addressNodes = IntBigArrays.newBigArray(addressesMap.size64());
+		BigArrays.fill(addressNodes, -1);
+		for (int node = 0; node < nodeIds.length; node++) BigArrays.set(addressNodes, nodeIds[node], node);
 
-			if (!outputs.equals(inferredOutputs)) {
-				reportInconsistency("output", outputs, inferredOutputs, transactionId, transaction, name, associatedOutput);
+		progress.start("Checking transaction inconsistencies");
+		progress.itemsName = "transactions";
+		progress.expectedUpdates = transactionAmount;
+
+		for (int i = 0; i < transactionAmount; i++) {
+			progress.lightUpdate();
+			if (inferredInputs[i] == null) continue;
+
+			long transactionId = randomTransactionsId[i];
+			final CharSequence transaction = randomTransactions[i];
+			File name = randomTransactionsFile[i];
+
+			LongOpenHashSet inputs = new LongOpenHashSet(transactionsDatabase.getInputAddresses(transactionId));
+			LongOpenHashSet outputs = new LongOpenHashSet(transactionsDatabase.getOutputAddresses(transactionId));
+
+			if (!inputs.equals(inferredInputs[i])) {
+				reportInconsistency("input", inputs, inferredInputs[i], transactionId, transaction, name);
+			}
+
+			if (!outputs.equals(inferredOutputs[i])) {
+				reportInconsistency("output", outputs, inferredOutputs[i], transactionId, transaction, name);
 			}
 
 			// Check that each input has among its successors all the outputs in the graph
 			for (long inputAddress : inputs) {
-				int inputAddressNode = ArrayUtils.indexOf(nodeIds, inputAddress);
-
-				int[] successors = graph.successorArray(inputAddressNode);
-				long[] addressSuccessors = new long[graph.outdegree(inputAddressNode)];
-				for (int k = 0; k < addressSuccessors.length; k++) {
-					addressSuccessors[k] = nodeIds[successors[k]];
-				}
+				int inputAddressNode = BigArrays.get(addressNodes, inputAddress);
+				int[] successors = inputAddressNode == -1 ? IntArrays.EMPTY_ARRAY : Arrays.copyOf(graph.successorArray(inputAddressNode), graph.outdegree(inputAddressNode));
 
 				for (long outputAddress : outputs) {
-					if (!ArrayUtils.contains(addressSuccessors, outputAddress)) {
+					int outputAddressNode = BigArrays.get(addressNodes, outputAddress);
+					if (outputAddressNode == -1 || Arrays.binarySearch(successors, outputAddressNode) < 0) {
 						reportMissingNode(transaction, inputs, outputs, inputAddress, successors, outputAddress);
 						break;
 					}
@@ -184,20 +223,19 @@ public class LocalSanityCheck {
 		progress.done();
 	}
 
-	private static LongOpenHashSet checkTransaction(GOV3Function<byte[]> transactionsMap, GOV3Function<byte[]> addressesMap, long transactionId, Iterator<MutableString> iterator, int transactionHash) {
-		LongOpenHashSet inferredAddresses = new LongOpenHashSet();
+	/** Adds the address of each line of a sampled transaction to the addresses inferred for its sample. */
+	private static void collectAddresses(GOV3Function<byte[]> transactionsMap, GOV3Function<byte[]> addressesMap, Long2IntOpenHashMap sampleOf, Iterator<MutableString> iterator, int transactionHash, LongOpenHashSet[] inferredAddresses) {
 		while (iterator.hasNext()) {
 			MutableString line = iterator.next();
 
-			if (transactionsMap.getLong(Utils.columnBytes(line, transactionHash)) != transactionId) {
+			int sample = sampleOf.get(transactionsMap.getLong(Utils.columnBytes(line, transactionHash)));
+			if (sample == -1) {
 				continue;
 			}
 
 			byte[] address = Utils.columnBytes(line, RECIPIENT);
-			inferredAddresses.add(addressesMap.getLong(address));
+			inferredAddresses[sample].add(addressesMap.getLong(address));
 		}
-
-		return inferredAddresses;
 	}
 
 	private static void reportMissingNode(CharSequence transaction, LongOpenHashSet inputs, LongOpenHashSet outputs, long inputAddress, int[] successors, long outputAddress) {
@@ -209,14 +247,13 @@ public class LocalSanityCheck {
 		missingNodes++;
 	}
 
-	private static void reportInconsistency(String source, LongOpenHashSet addressSet, LongOpenHashSet inferredAddressSet, long transactionId, CharSequence transaction, File transactionFile, Path associatedFile) {
+	private static void reportInconsistency(String source, LongOpenHashSet addressSet, LongOpenHashSet inferredAddressSet, long transactionId, CharSequence transaction, File transactionFile) {
 		progress.logger.error(
 				"inconsistency in " + source +
 						"\naddresses: " + addressSet +
 						"\ninferred addresses: " + inferredAddressSet +
 						"\ntransaction file: " + transactionFile +
-						"\ntransaction: " + transaction + " (" + transactionId + ")" +
-						"\nfile: " + associatedFile
+						"\ntransaction: " + transaction + " (" + transactionId + ")"
 		);
 		missingInputsOutputs++;
 	}
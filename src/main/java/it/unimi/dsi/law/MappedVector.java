@@ -0,0 +1,97 @@
+package it.unimi.dsi.law;
+
+import it.unimi.dsi.logging.ProgressLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/** A node-indexed vector stored in binary form (as written by {@link it.unimi.dsi.fastutil.io.BinIO}),
+ * scanned in parallel by memory-mapping one chunk per task, so that vectors larger than the heap or
+ * with more than 2<sup>31</sup> elements can be processed. */
+public class MappedVector implements Closeable {
+	/** The number of elements mapped and scanned by each task. */
+	private static final long CHUNK_SIZE = 1L << 26;
+
+	public enum Type {
+		INT(Integer.BYTES, true),
+		LONG(Long.BYTES, true),
+		FLOAT(Float.BYTES, false),
+		DOUBLE(Double.BYTES, false);
+
+		public final int width;
+		public final boolean integral;
+
+		Type(int width, boolean integral) {
+			this.width = width;
+			this.integral = integral;
+		}
+
+		private double get(ByteBuffer buffer, int i) {
+			switch (this) {
+				case INT: return buffer.getInt(i * this.width);
+				case LONG: return buffer.getLong(i * this.width);
+				case FLOAT: return buffer.getFloat(i * this.width);
+				default: return buffer.getDouble(i * this.width);
+			}
+		}
+	}
+
+	/** Receives the elements of a chunk of the vector, in order. */
+	public interface Visitor {
+		void visit(long index, double value);
+	}
+
+	private final FileChannel channel;
+	private final Type type;
+	private final long size;
+
+	public MappedVector(Path file, Type type) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.type = type;
+		this.size = this.channel.size() / type.width;
+	}
+
+	public long size64() {
+		return this.size;
+	}
+
+	public Type type() {
+		return this.type;
+	}
+
+	/** Scans the vector in parallel, feeding each chunk to a new visitor from the supplier,
+	 * and returns the visitors in chunk order.
+	 *
+	 * @param pl an optional progress logger, updated after each chunk. */
+	public <V extends Visitor> List<V> scan(Supplier<V> visitors, int threads, ProgressLogger pl) {
+		final List<Callable<V>> tasks = new ArrayList<>();
+
+		for (long from = 0; from < this.size; from += CHUNK_SIZE) {
+			final long start = from, length = Math.min(CHUNK_SIZE, this.size - from);
+
+			tasks.add(() -> {
+				final V visitor = visitors.get();
+				final ByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, start * this.type.width, length * this.type.width);
+				for (int i = 0; i < length; i++) visitor.visit(start + i, this.type.get(buffer, i));
+
+				if (pl != null) synchronized (pl) { pl.update(length); }
+				return visitor;
+			});
+		}
+
+		return Utils.invokeAll(tasks, threads);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
@@ -0,0 +1,520 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.law.graph.Blockchain2Webgraph;
+import it.unimi.dsi.law.graph.MappedTable;
+import it.unimi.dsi.law.graph.MappingTables;
+import it.unimi.dsi.law.graph.MemoryPlan;
+import it.unimi.dsi.law.graph.Parameters;
+import it.unimi.dsi.law.graph.TransactionsDatabase;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.Transform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Runs the stages of the build in dependency order, rebuilding only the stages whose artifacts are out of date.
+ *
+ * <p>Every stage declares the files (or directories) it reads and the files it writes, and depends on the stages
+ * writing its inputs. The fingerprint of a stage is a SHA-256 digest of the content of its inputs, recorded in
+ * {@link Parameters#pipelineManifest} when the stage completes: a stage is rebuilt if one of its outputs is missing or
+ * its fingerprint changed. Since the tools reuse any artifact that exists, the outputs of a stage and its temporary
+ * files (e.g., stale checkpoints) are deleted before rebuilding it. A stage whose inputs were rebuilt with the same
+ * content is not rebuilt. Digests are cached in the manifest by size and modification time, so that unchanged inputs
+ * are not read again.
+ *
+ * <p>Stages whose dependencies are complete run concurrently, at most <code>jobs</code> at a time; stages that size
+ * their memory on the free heap (see {@link MemoryPlan}) run alone. If a stage fails, the stages depending on it are
+ * skipped. Paths, threads and batch size are read from the configuration file given
+ * with <code>--config</code> (see {@link Parameters}).
+ *
+ * <p>With <code>--report</code>, the resources used by each stage that was run (see {@link StageMetrics}) are written
+ * as JSON, together with the rows or arcs it processed, the size of its inputs and outputs, and the settings of the
+ * run; as the measures are of the whole process, they are accurate only with a single job. */
+public class Pipeline {
+	private static final Logger logger = LoggerFactory.getLogger(Pipeline.class);
+	private static final String STAGE_PREFIX = "stage.", DIGEST_PREFIX = "digest.";
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	@FunctionalInterface
+	private interface Action {
+		/** Runs the stage and returns the number of items (e.g., rows or arcs) it processed. */
+		long run() throws Exception;
+	}
+
+	private static final class Stage {
+		private final String name;
+		private final List<Path> inputs, outputs, temporaries;
+		private final Action action;
+		/** Whether the stage takes most of the heap, so that it must not run with other stages. */
+		private final boolean exclusive;
+		private final List<Stage> dependencies = new ArrayList<>();
+		/** The name of the items processed by the stage (e.g., rows or arcs), and their number in the last run, for reports. */
+		private String items = "items";
+		private long count;
+
+		private Stage(String name, boolean exclusive, List<Path> inputs, List<Path> outputs, List<Path> temporaries, Action action) {
+			this.name = name;
+			this.exclusive = exclusive;
+			this.inputs = inputs;
+			this.outputs = outputs;
+			this.temporaries = temporaries;
+			this.action = action;
+		}
+
+		private Stage counting(String items) {
+			this.items = items;
+			return this;
+		}
+	}
+
+	private final Map<String, Stage> stages = new LinkedHashMap<>();
+	private final Properties manifest = new Properties();
+	private final ReadWriteLock memory = new ReentrantReadWriteLock(true);
+	private final Map<Stage, StageMetrics> metrics = new ConcurrentHashMap<>();
+
+	Pipeline() throws IOException {
+		if (pipelineManifest.toFile().exists()) {
+			try (InputStream in = Files.newInputStream(pipelineManifest)) {
+				this.manifest.load(in);
+			}
+		}
+
+		final Path hyperBallCheckpoint = checkpointsDirectory.resolve("hyperball.checkpoint");
+		final Path pageRank = Paths.get(basename + "-pagerank.doubles");
+
+		this.add("maps", true, List.of(addressesFile, transactionsFile), List.of(addressesMapFile, transactionsMapFile), List.of(),
+				() -> MappingTables.buildAddressesMap().size64() + MappingTables.buildTransactionsMap().size64()).counting("keys");
+
+		this.add("tables", true, List.of(addressesMapFile, transactionsMapFile, inputsDirectory, outputsDirectory),
+				List.of(transactionInputsFile, transactionOutputsFile),
+				List.of(checkpointsDirectory.resolve("inputs.checkpoint"), checkpointsDirectory.resolve("outputs.checkpoint"), inputsQuarantineFile, outputsQuarantineFile),
+				() -> new TransactionsDatabase(MappingTables.buildAddressesMap(), MappingTables.buildTransactionsMap()).rows()).counting("rows");
+
+		this.add("graph", true, List.of(addressesMapFile, transactionsMapFile, transactionInputsFile, transactionOutputsFile),
+				concat(graph(basename), List.of(ids)),
+				List.of(checkpointsDirectory.resolve("arcs.checkpoint"), checkpointsDirectory.resolve("arcs")),
+				() -> {
+					Blockchain2Webgraph.main(new String[0]);
+					return arcs(basename);
+				}).counting("arcs");
+
+		this.add("transpose", true, graph(basename), graph(transposedBasename), List.of(), () -> {
+			final ProgressLogger progress = Utils.getProgressLogger(Pipeline.class, "nodes");
+			final ImmutableGraph graph = ImmutableGraph.loadOffline(basename.toString());
+			final int size = (int) Math.max(1, Math.min(MemoryPlan.batchSize("transpose", MemoryPlan.BYTES_PER_ARC, 0, 1), graph.numArcs()));
+			BVGraph.store(Transform.transposeOffline(graph, size, artifacts.toFile(), progress), transposedBasename.toString(), progress);
+			return graph.numArcs();
+		}).counting("arcs");
+
+		this.add("index", true, List.of(addressesMapFile, transactionsMapFile, transactionInputsFile, transactionOutputsFile, ids),
+				concat(table(transactionInputsTable), table(transactionOutputsTable), table(addressTransactionsTable), List.of(addressNodes)), List.of(),
+				() -> {
+					final GOV3Function<byte[]> transactionMap = MappingTables.buildTransactionsMap();
+					BlockchainIndex.build(MappingTables.buildAddressesMap(), transactionMap);
+					return transactionMap.size64();
+				}).counting("transactions");
+
+		this.add("components", false, concat(graph(basename), List.of(ids)),
+				List.of(Paths.get(basename + ConnectedComponents.COMPONENTS_EXTENSION), Paths.get(basename + ConnectedComponents.SIZES_EXTENSION)), List.of(),
+				() -> {
+					ConnectedComponents.main(new String[]{"-T", Integer.toString(threads), basename.toString(), basename.toString()});
+					return arcs(basename);
+				}).counting("arcs");
+
+		this.add("pagerank", false, graph(transposedBasename), List.of(pageRank), List.of(),
+				() -> {
+					WeightedPageRank.main(new String[]{"-T", Integer.toString(threads), transposedBasename.toString(), pageRank.toString()});
+					return arcs(transposedBasename);
+				}).counting("arcs");
+
+		this.add("distances", false, concat(graph(basename), graph(transposedBasename)),
+				List.of(Paths.get(basename + DistanceStatistics.HARMONIC_EXTENSION), Paths.get(basename + DistanceStatistics.NEIGHBOURHOOD_EXTENSION), Paths.get(basename + DistanceStatistics.STATS_EXTENSION)),
+				List.of(hyperBallCheckpoint),
+				() -> {
+					DistanceStatistics.main(new String[]{"-T", Integer.toString(threads), "-c", hyperBallCheckpoint.toString(), basename.toString(), transposedBasename.toString(), basename.toString()});
+					return arcs(basename);
+				}).counting("arcs");
+	}
+
+	/** Adds a stage, which depends on the previously added stages writing its inputs. */
+	private Stage add(String name, boolean exclusive, List<Path> inputs, List<Path> outputs, List<Path> temporaries, Action action) {
+		final Stage stage = new Stage(name, exclusive, inputs, outputs, temporaries, action);
+		for (Stage s : this.stages.values()) {
+			if (s.outputs.stream().anyMatch(inputs::contains)) stage.dependencies.add(s);
+		}
+		this.stages.put(name, stage);
+		return stage;
+	}
+
+	private static List<Path> graph(Path basename) {
+		return List.of(Paths.get(basename + BVGraph.GRAPH_EXTENSION), Paths.get(basename + BVGraph.OFFSETS_EXTENSION), Paths.get(basename + BVGraph.PROPERTIES_EXTENSION));
+	}
+
+	private static List<Path> table(Path basename) {
+		return List.of(Paths.get(basename + MappedTable.OFFSETS_EXTENSION), Paths.get(basename + MappedTable.LONGS_EXTENSION));
+	}
+
+	private static long arcs(Path basename) throws IOException {
+		final Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(Paths.get(basename + BVGraph.PROPERTIES_EXTENSION))) {
+			properties.load(in);
+		}
+		return Long.parseLong(properties.getProperty("arcs"));
+	}
+
+	private static long size(List<Path> paths) throws IOException {
+		long size = 0;
+		for (Path path : paths) {
+			if (!Files.exists(path)) continue;
+			try (Stream<Path> walk = Files.walk(path)) {
+				for (Path p : walk.filter(Files::isRegularFile).toArray(Path[]::new)) size += Files.size(p);
+			}
+		}
+		return size;
+	}
+
+	@SafeVarargs
+	private static List<Path> concat(List<Path>... lists) {
+		final List<Path> result = new ArrayList<>();
+		for (List<Path> list : lists) result.addAll(list);
+		return result;
+	}
+
+	/** Returns the given stages and all the stages they depend on, in the order in which they were added. */
+	private Set<Stage> closure(List<String> targets) {
+		final Set<Stage> result = new LinkedHashSet<>();
+		for (String name : targets) {
+			final Stage stage = this.stages.get(name);
+			if (stage == null) throw new IllegalArgumentException("Unknown stage " + name + " (stages: " + String.join(", ", this.stages.keySet()) + ")");
+			this.collect(stage, result);
+		}
+
+		final Set<Stage> ordered = new LinkedHashSet<>(this.stages.values());
+		ordered.retainAll(result);
+		return ordered;
+	}
+
+	private void collect(Stage stage, Set<Stage> result) {
+		if (!result.add(stage)) return;
+		for (Stage s : stage.dependencies) this.collect(s, result);
+	}
+
+	/** Returns whether the outputs of the stage exist and were computed from inputs with the given fingerprint. */
+	private boolean upToDate(Stage stage, String fingerprint) {
+		synchronized (this.manifest) {
+			if (!fingerprint.equals(this.manifest.getProperty(STAGE_PREFIX + stage.name))) return false;
+		}
+		return stage.outputs.stream().allMatch(Files::exists);
+	}
+
+	private void run(Stage stage, boolean force) throws Exception {
+		final String fingerprint = this.fingerprint(stage);
+		if (!force && this.upToDate(stage, fingerprint)) {
+			logger.info("Stage " + stage.name + " is up to date");
+			return;
+		}
+
+		logger.info("Running stage " + stage.name);
+		for (Path p : concat(stage.outputs, stage.temporaries)) delete(p);
+		synchronized (this.manifest) {
+			this.manifest.remove(STAGE_PREFIX + stage.name);
+			this.storeManifest();
+		}
+
+		final long start = System.currentTimeMillis();
+		final Lock lock = stage.exclusive ? this.memory.writeLock() : this.memory.readLock();
+		lock.lock();
+		final StageMetrics metrics = StageMetrics.start();
+		try {
+			stage.count = stage.action.run();
+		} finally {
+			metrics.stop();
+			lock.unlock();
+		}
+
+		for (Path p : stage.outputs) if (!Files.exists(p)) throw new NoSuchFileException("Stage " + stage.name + " did not write " + p);
+		synchronized (this.manifest) {
+			this.manifest.setProperty(STAGE_PREFIX + stage.name, fingerprint);
+			this.storeManifest();
+		}
+		this.metrics.put(stage, metrics);
+		logger.info("Stage " + stage.name + " completed in " + (System.currentTimeMillis() - start) / 1000 + "s");
+	}
+
+	/** Returns a digest of the names and content of the inputs of the stage. */
+	private String fingerprint(Stage stage) throws IOException {
+		final MessageDigest digest = sha256();
+		for (Path input : stage.inputs) {
+			if (!Files.exists(input)) throw new NoSuchFileException("Missing input " + input + " of stage " + stage.name);
+			digest.update(input.toAbsolutePath().toString().getBytes());
+			digest.update((byte) 0);
+			digest.update(this.digest(input).getBytes());
+		}
+		return hex(digest.digest());
+	}
+
+	/** Returns the digest of the content of a file or, for a directory, of the names and digests of its files,
+	 * computing in parallel the digests that are not cached. */
+	private String digest(Path input) throws IOException {
+		if (!Files.isDirectory(input)) return this.cachedDigest(input);
+
+		final Path[] files;
+		try (Stream<Path> walk = Files.walk(input)) {
+			files = walk.filter(Files::isRegularFile).sorted(Comparator.comparing(Path::toString)).toArray(Path[]::new);
+		}
+
+		final List<Callable<String>> tasks = new ArrayList<>(files.length);
+		for (Path file : files) tasks.add(() -> this.cachedDigest(file));
+		final List<String> digests = Utils.invokeAll(tasks, threads);
+
+		final MessageDigest digest = sha256();
+		for (int i = 0; i < files.length; i++) {
+			digest.update(input.relativize(files[i]).toString().getBytes());
+			digest.update((byte) 0);
+			digest.update(digests.get(i).getBytes());
+		}
+		return hex(digest.digest());
+	}
+
+	private String cachedDigest(Path file) throws IOException {
+		final String key = DIGEST_PREFIX + file.toAbsolutePath();
+		final String stamp = Files.size(file) + " " + Files.getLastModifiedTime(file).toMillis() + " ";
+
+		synchronized (this.manifest) {
+			final String cached = this.manifest.getProperty(key);
+			if (cached != null && cached.startsWith(stamp)) return cached.substring(stamp.length());
+		}
+
+		final MessageDigest digest = sha256();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		final String result = hex(digest.digest());
+		synchronized (this.manifest) {
+			this.manifest.setProperty(key, stamp + result);
+		}
+		return result;
+	}
+
+	/** Stores the manifest atomically; the caller must hold its lock. */
+	private void storeManifest() throws IOException {
+		pipelineManifest.toAbsolutePath().getParent().toFile().mkdirs();
+		final File temp = File.createTempFile(pipelineManifest.getFileName().toString(), ".tmp", pipelineManifest.toAbsolutePath().getParent().toFile());
+		try {
+			try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+				this.manifest.store(out, "Fingerprints of the pipeline stages and digests of their inputs");
+			}
+			Files.move(temp.toPath(), pipelineManifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	static void delete(Path path) throws IOException {
+		if (!Files.exists(path)) return;
+		try (Stream<Path> walk = Files.walk(path)) {
+			for (Path p : walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) Files.delete(p);
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		final StringBuilder s = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) s.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return s.toString();
+	}
+
+	/** Runs the given stages, each after the stages it depends on, and returns whether all of them succeeded. */
+	private boolean run(Set<Stage> targets, Set<Stage> forced, int jobs) {
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, jobs));
+		final Map<Stage, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+
+		try {
+			for (Stage stage : targets) {
+				final CompletableFuture<?>[] dependencies = stage.dependencies.stream().map(futures::get).toArray(CompletableFuture[]::new);
+				futures.put(stage, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+					try {
+						this.run(stage, forced.contains(stage));
+					} catch (Exception | Error e) {
+						logger.error("Stage " + stage.name + " failed", e);
+						throw new CompletionException(e);
+					}
+				}, executor));
+			}
+
+			boolean success = true;
+			for (Map.Entry<Stage, CompletableFuture<Void>> e : futures.entrySet()) {
+				try {
+					e.getValue().join();
+				} catch (CompletionException ce) {
+					if (e.getKey().dependencies.stream().anyMatch(d -> futures.get(d).isCompletedExceptionally())) logger.warn("Stage " + e.getKey().name + " skipped");
+					success = false;
+				}
+			}
+			return success;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Runs, one at a time and even if they are up to date, the given stages and all the stages they depend on, and
+	 * returns whether all of them succeeded. */
+	boolean rebuild(List<String> names) {
+		final Set<Stage> targets = this.closure(names);
+		return this.run(targets, targets, 1);
+	}
+
+	/** Writes to a file, as a JSON object, the given properties of the run, the environment, and the measures of the
+	 * stages that completed, in the order in which they were added. Properties are written as numbers if they are
+	 * numbers, as strings otherwise. */
+	void report(Path file, Map<String, Object> properties) throws IOException {
+		final Map<String, Object> header = new LinkedHashMap<>(properties);
+		header.put("java", System.getProperty("java.version"));
+		header.put("vm", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+		header.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version") + " " + System.getProperty("os.arch"));
+		header.put("processors", Runtime.getRuntime().availableProcessors());
+		header.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+		header.put("physicalBytes", MemoryPlan.physical());
+		header.put("threads", threads);
+		header.put("batchSize", batchSize);
+
+		if (file.toAbsolutePath().getParent() != null) Files.createDirectories(file.toAbsolutePath().getParent());
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			out.println("{");
+			for (Map.Entry<String, Object> e : header.entrySet()) {
+				out.print("\t\"" + e.getKey() + "\": ");
+				if (e.getValue() instanceof Number) out.print(e.getValue());
+				else QueryServer.string(String.valueOf(e.getValue()), out);
+				out.println(",");
+			}
+
+			out.print("\t\"stages\": [");
+			boolean first = true;
+			for (Stage stage : this.stages.values()) {
+				final StageMetrics metrics = this.metrics.get(stage);
+				if (metrics == null) continue;
+				out.println(first ? "" : ",");
+				first = false;
+				out.println("\t\t{");
+				out.println("\t\t\t\"stage\": \"" + stage.name + "\",");
+				metrics.print(stage.items, stage.count, "\t\t\t", out);
+				out.println(",");
+				out.println("\t\t\t\"inputBytes\": " + size(stage.inputs) + ",");
+				out.println("\t\t\t\"outputBytes\": " + size(stage.outputs));
+				out.print("\t\t}");
+			}
+			out.println(first ? "]" : "\n\t]");
+			out.println("}");
+		}
+		logger.info("Report written to " + file);
+	}
+
+	/** Prints the stages that would be run, assuming that every stage out of date changes its outputs. */
+	private void dryRun(Set<Stage> targets, Set<Stage> forced) throws IOException {
+		final Set<Stage> stale = new LinkedHashSet<>();
+		for (Stage stage : targets) {
+			final String status;
+			if (forced.contains(stage)) status = "forced";
+			else if (stage.dependencies.stream().anyMatch(stale::contains)) status = "out of date (dependencies)";
+			else if (!stage.inputs.stream().allMatch(Files::exists)) status = "missing inputs";
+			else if (!this.upToDate(stage, this.fingerprint(stage))) status = "out of date";
+			else status = "up to date";
+
+			if (!status.equals("up to date")) stale.add(stage);
+			System.out.println(stage.name + "\t" + status);
+		}
+
+		synchronized (this.manifest) {
+			this.storeManifest();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(Pipeline.class.getName(), "Run the stages of the build (maps, tables, graph, transpose, index, components, pagerank, distances) that are out of date, together with the stages they depend on.",
+				new Parameter[]{
+						new FlaggedOption("config", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'c', "config", "A properties file overriding the paths and settings in " + Parameters.class.getName() + "."),
+						new FlaggedOption("jobs", JSAP.INTEGER_PARSER, "2", JSAP.NOT_REQUIRED, 'j', "jobs", "The maximum number of stages running at the same time."),
+						new Switch("force", 'f', "force", "Rebuild the given stages (or all stages) even if they are up to date."),
+						new Switch("dryRun", 'n', "dry-run", "Print the status of the stages without running them."),
+						new FlaggedOption("report", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'r', "report", "Write the resources used by each stage that is run to this file, as JSON."),
+						new UnflaggedOption("stages", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, true, "The stages to run (default: all)."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		// Must be set before Parameters is initialised
+		if (jsapResult.contains("config")) System.setProperty(CONFIGURATION_PROPERTY, jsapResult.getString("config"));
+
+		final Pipeline pipeline = new Pipeline();
+		final List<String> names = jsapResult.contains("stages") ? Arrays.asList(jsapResult.getStringArray("stages")) : new ArrayList<>(pipeline.stages.keySet());
+		final Set<Stage> targets = pipeline.closure(names);
+		final Set<Stage> forced = new LinkedHashSet<>();
+		if (jsapResult.getBoolean("force")) {
+			for (Stage stage : targets) if (!jsapResult.contains("stages") || names.contains(stage.name)) forced.add(stage);
+		}
+
+		if (jsapResult.getBoolean("dryRun")) {
+			pipeline.dryRun(targets, forced);
+			return;
+		}
+
+		final boolean success = pipeline.run(targets, forced, jsapResult.getInt("jobs"));
+		if (jsapResult.contains("report")) pipeline.report(Paths.get(jsapResult.getString("report")), Map.of("jobs", jsapResult.getInt("jobs")));
+		if (!success) System.exit(1);
+	}
+}
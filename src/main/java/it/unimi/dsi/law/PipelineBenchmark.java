@@ -0,0 +1,79 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static it.unimi.dsi.law.graph.Parameters.CONFIGURATION_PROPERTY;
+
+/** Measures where the time of the build goes, running its stages on a synthetic dump of fixed size and seed (see
+ * {@link DumpGenerator}) and writing the resources used by each of them to a JSON report (see {@link StageMetrics}).
+ *
+ * <p>By default, the stages are those building the maps, the transaction tables and the graph, the transposition
+ * (which is mostly compression) and, as an analytic, the connected components; they run one at a time, so that the
+ * measures of each stage are its own. Reports of runs with the same dump can be compared across versions and
+ * machines: besides the measures, they record the settings of the run and the environment. Threads and batch size are
+ * the defaults of {@link it.unimi.dsi.law.graph.Parameters}, as the configuration of the dump only sets its path.
+ *
+ * <p>The dump is written to a temporary directory, deleted at the end, unless a directory is given. */
+public class PipelineBenchmark {
+	private static final Logger logger = LoggerFactory.getLogger(PipelineBenchmark.class);
+
+	public static final long TRANSACTIONS = 1_000_000;
+	public static final int TRANSACTIONS_PER_DAY = 100_000;
+	public static final double REUSE = 0.5;
+	public static final List<String> STAGES = List.of("maps", "tables", "graph", "transpose", "components");
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(PipelineBenchmark.class.getName(), "Run the stages of the build on a synthetic dump, one at a time, and write the resources used by each of them to the given JSON report.",
+				new Parameter[]{
+						new FlaggedOption("transactions", JSAP.LONG_PARSER, Long.toString(TRANSACTIONS), JSAP.NOT_REQUIRED, 't', "transactions", "The number of transactions of the dump."),
+						new FlaggedOption("seed", JSAP.LONG_PARSER, "0", JSAP.NOT_REQUIRED, 's', "seed", "The seed of the dump."),
+						new FlaggedOption("directory", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'd', "directory", "The directory where the dump and the artifacts are written and kept (default: a temporary directory)."),
+						new UnflaggedOption("report", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The report file."),
+						new UnflaggedOption("stages", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, true, "The stages to measure, together with the stages they depend on (default: " + String.join(", ", STAGES) + ")."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final long numTransactions = jsapResult.getLong("transactions"), seed = jsapResult.getLong("seed");
+		final List<String> stages = jsapResult.contains("stages") ? Arrays.asList(jsapResult.getStringArray("stages")) : STAGES;
+		final Path directory = jsapResult.contains("directory") ? Paths.get(jsapResult.getString("directory")) : Files.createTempDirectory("bitcoin2webgraph-benchmark");
+
+		boolean success = false;
+		try {
+			// Must be set before Parameters is initialised, which happens as the dump is written
+			System.setProperty(CONFIGURATION_PROPERTY, DumpGenerator.configuration(directory).toString());
+			final long start = System.currentTimeMillis();
+			final long bytes = new DumpGenerator(numTransactions, TRANSACTIONS_PER_DAY, REUSE, seed).write(directory, Runtime.getRuntime().availableProcessors());
+			logger.info("Dump of " + numTransactions + " transactions (" + bytes + " bytes) written to " + directory + " in " + (System.currentTimeMillis() - start) / 1000 + "s");
+
+			final Pipeline pipeline = new Pipeline();
+			success = pipeline.rebuild(stages);
+
+			final Map<String, Object> properties = new LinkedHashMap<>();
+			properties.put("transactions", numTransactions);
+			properties.put("transactionsPerDay", TRANSACTIONS_PER_DAY);
+			properties.put("reuse", REUSE);
+			properties.put("seed", seed);
+			properties.put("dumpBytes", bytes);
+			properties.put("jobs", 1);
+			pipeline.report(Paths.get(jsapResult.getString("report")), properties);
+		} finally {
+			if (!jsapResult.contains("directory")) Pipeline.delete(directory);
+		}
+
+		if (!success) System.exit(1);
+	}
+}
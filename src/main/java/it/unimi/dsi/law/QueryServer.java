@@ -0,0 +1,224 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A local HTTP server answering queries on transactions and addresses through a {@link BlockchainIndex}.
+ *
+ * <p>Every endpoint accepts one or more keys, either as <code>q</code> parameters of a GET request or one per line
+ * in the body of a POST request, and answers with one JSON object per key and line:
+ * <ul>
+ *     <li><code>/transaction</code>: the input and output addresses of transactions, given by hash;
+ *     <li><code>/neighbours</code>: the successors (and predecessors, if the transposed graph is available) of addresses;
+ *     <li><code>/transactions</code>: the hashes of the transactions involving addresses.
+ * </ul>
+ * Unknown keys are answered with an <code>error</code> field. <code>/stats</code> reports latency percentiles. */
+public class QueryServer {
+	private static final Logger logger = LoggerFactory.getLogger(QueryServer.class);
+
+	/** Latencies are counted in buckets of exponentially increasing width, four per power of two of microseconds. */
+	private static final int BUCKETS_PER_OCTAVE = 4;
+	private static final AtomicLongArray latencies = new AtomicLongArray(64 * BUCKETS_PER_OCTAVE);
+
+	private interface Query {
+		void answer(BlockchainIndex index, String key, PrintWriter out) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(QueryServer.class.getName(), "Serve queries on transactions and addresses over HTTP, answering with JSON lines.",
+				new Parameter[]{
+						new FlaggedOption("port", JSAP.INTEGER_PARSER, "8080", JSAP.NOT_REQUIRED, 'p', "port", "The port to listen on."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads serving requests."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final BlockchainIndex index = BlockchainIndex.load();
+		final ThreadLocal<BlockchainIndex> indices = ThreadLocal.withInitial(index::copy);
+		if (!index.hasTransposed()) logger.warn("The transposed graph is not available: predecessors will not be reported");
+
+		final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", jsapResult.getInt("port")), 0);
+		final ExecutorService executor = Executors.newFixedThreadPool(jsapResult.getInt("threads"));
+		server.setExecutor(executor);
+
+		server.createContext("/transaction", exchange -> serve(exchange, indices, QueryServer::transaction));
+		server.createContext("/neighbours", exchange -> serve(exchange, indices, QueryServer::neighbours));
+		server.createContext("/transactions", exchange -> serve(exchange, indices, QueryServer::transactions));
+		server.createContext("/stats", QueryServer::stats);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop(1);
+			executor.shutdown();
+		}));
+
+		server.start();
+		logger.info("Listening on " + server.getAddress());
+	}
+
+	private static void serve(HttpExchange exchange, ThreadLocal<BlockchainIndex> indices, Query query) throws IOException {
+		final long start = System.nanoTime();
+		try {
+			final List<String> keys = keys(exchange);
+			exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+			exchange.sendResponseHeaders(keys.isEmpty() ? 400 : 200, 0);
+
+			try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)))) {
+				final BlockchainIndex index = indices.get();
+				for (String key : keys) {
+					query.answer(index, key, out);
+					out.print('\n');
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.error("Error serving " + exchange.getRequestURI(), e);
+			throw e;
+		} finally {
+			exchange.close();
+			record(System.nanoTime() - start);
+		}
+	}
+
+	/** Returns the <code>q</code> parameters of a GET request, or the non-empty lines of the body of a POST request. */
+	private static List<String> keys(HttpExchange exchange) throws IOException {
+		final List<String> keys = new ObjectArrayList<>();
+
+		if ("POST".equals(exchange.getRequestMethod())) {
+			final BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+			for (String line; (line = in.readLine()) != null; ) {
+				if (!line.trim().isEmpty()) keys.add(line.trim());
+			}
+		} else if (exchange.getRequestURI().getRawQuery() != null) {
+			for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+				if (parameter.startsWith("q=")) keys.add(URLDecoder.decode(parameter.substring(2), "UTF-8"));
+			}
+		}
+
+		return keys;
+	}
+
+	private static void transaction(BlockchainIndex index, String hash, PrintWriter out) throws IOException {
+		final long id = index.transactionId(hash);
+		out.print("{\"transaction\":");
+		string(hash, out);
+		if (id == -1) {
+			out.print(",\"error\":\"unknown transaction\"}");
+			return;
+		}
+
+		out.print(",\"inputs\":");
+		addresses(index, index.inputs(id), out);
+		out.print(",\"outputs\":");
+		addresses(index, index.outputs(id), out);
+		out.print('}');
+	}
+
+	private static void neighbours(BlockchainIndex index, String address, PrintWriter out) throws IOException {
+		final long id = index.addressId(address);
+		out.print("{\"address\":");
+		string(address, out);
+		if (id == -1) {
+			out.print(",\"error\":\"unknown address\"}");
+			return;
+		}
+
+		out.print(",\"successors\":");
+		addresses(index, index.successors(id), out);
+		if (index.hasTransposed()) {
+			out.print(",\"predecessors\":");
+			addresses(index, index.predecessors(id), out);
+		}
+		out.print('}');
+	}
+
+	private static void transactions(BlockchainIndex index, String address, PrintWriter out) throws IOException {
+		final long id = index.addressId(address);
+		out.print("{\"address\":");
+		string(address, out);
+		if (id == -1) {
+			out.print(",\"error\":\"unknown address\"}");
+			return;
+		}
+
+		out.print(",\"transactions\":[");
+		final long[] transactions = index.transactions(id);
+		for (int i = 0; i < transactions.length; i++) {
+			if (i > 0) out.print(',');
+			string(index.transaction(transactions[i]), out);
+		}
+		out.print("]}");
+	}
+
+	private static void addresses(BlockchainIndex index, long[] ids, PrintWriter out) throws IOException {
+		out.print('[');
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) out.print(',');
+			string(index.address(ids[i]), out);
+		}
+		out.print(']');
+	}
+
+	/** Prints the given string as a JSON string literal. */
+	static void string(String s, PrintWriter out) {
+		out.print('"');
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c == '\\') out.print('\\');
+			if (c < ' ') out.printf("\\u%04x", (int) c);
+			else out.print(c);
+		}
+		out.print('"');
+	}
+
+	private static void record(long nanos) {
+		final long micros = Math.max(1, nanos / 1000);
+		final int octave = 63 - Long.numberOfLeadingZeros(micros);
+		// The fraction of the way to the next power of two, in quarters
+		final int fraction = octave < 2 ? 0 : (int) ((micros >>> (octave - 2)) & (BUCKETS_PER_OCTAVE - 1));
+		latencies.incrementAndGet(octave * BUCKETS_PER_OCTAVE + fraction);
+	}
+
+	/** Returns an upper bound, in microseconds, on the latency of the given quantile of the requests served so far. */
+	private static long percentile(long[] counts, long total, double quantile) {
+		final long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int b = 0; b < counts.length; b++) {
+			seen += counts[b];
+			if (seen >= rank) {
+				final int octave = b / BUCKETS_PER_OCTAVE, fraction = b % BUCKETS_PER_OCTAVE;
+				return octave < 2 ? 1L << (octave + 1) : (1L << octave) + ((fraction + 1L) << (octave - 2));
+			}
+		}
+		return 0;
+	}
+
+	private static void stats(HttpExchange exchange) throws IOException {
+		final long[] counts = new long[latencies.length()];
+		long total = 0;
+		for (int b = 0; b < counts.length; b++) total += counts[b] = latencies.get(b);
+
+		final String body = total == 0 ? "{\"requests\":0}\n" : String.format("{\"requests\":%d,\"p50_us\":%d,\"p90_us\":%d,\"p99_us\":%d,\"p999_us\":%d}\n", total,
+				percentile(counts, total, .5), percentile(counts, total, .9), percentile(counts, total, .99), percentile(counts, total, .999));
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -2,31 +2,22 @@ package it.unimi.dsi.law;
 
 import com.martiansoftware.jsap.*;
 import it.unimi.dsi.fastutil.BigArrays;
-import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntBigArrays;
 import it.unimi.dsi.fastutil.io.BinIO;
-import it.unimi.dsi.fastutil.longs.LongArrays;
-import it.unimi.dsi.io.InputBitStream;
 import it.unimi.dsi.logging.ProgressLogger;
-import it.unimi.dsi.webgraph.ImmutableGraph;
-import it.unimi.dsi.webgraph.labelling.ArcLabelledImmutableGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.lang.module.Configuration;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Properties;
-import java.util.concurrent.TimeUnit;
 
 public class RawGraphStats {
 	private static final Logger logger = LoggerFactory.getLogger(RawGraphStats.class);
 	private static final ProgressLogger pl = new ProgressLogger(logger);
 
 	public static void main(String[] args) throws IOException, JSAPException {
-		final SimpleJSAP jsap = new SimpleJSAP(RawGraphStats.class.getName(), "Compute some stats on the given transaction graph",
+		final SimpleJSAP jsap = new SimpleJSAP(RawGraphStats.class.getName(), "Compute some stats on the given transaction graph. The label index is built first if missing (see LabelIndex).",
 				new Parameter[]{
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
 						new UnflaggedOption("basename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the graph."),
 						new UnflaggedOption("output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, false, "The output file."),
 				}
@@ -36,44 +27,28 @@ public class RawGraphStats {
 		if (jsap.messagePrinted()) System.exit(1);
 
 		final String basename = jsapResult.getString("basename");
+		final int threads = jsapResult.getInt("threads");
 
-		final Properties p = new Properties();
-		p.load(Files.newInputStream(Paths.get(basename + ".properties")));
-
-		// Get long width from labelspec
-		final String labelSpec = p.getProperty("labelspec");
-		final String labelSize = labelSpec.substring(labelSpec.lastIndexOf(',') + 1, labelSpec.length() - 1);
-		final int transactionSize = Integer.parseInt(labelSize);
-
-		final String underlyingBasename = new File(basename).getParentFile().toPath().resolve(p.getProperty("underlyinggraph")).toString();
-		final ImmutableGraph g = ImmutableGraph.loadOffline(underlyingBasename);
-		final int[][] transactionAmount = IntBigArrays.newBigArray(g.numArcs());
-
-		final File labelFile = new File(basename + ".labels");
-		final InputBitStream fbis = new InputBitStream(Files.newInputStream(labelFile.toPath()));
+		if (!LabelIndex.exists(basename)) LabelIndex.build(basename);
+		final LabelIndex index = LabelIndex.load(basename);
+		final int[][] transactionAmount = IntBigArrays.newBigArray(index.numArcs());
 
 		pl.start("Computing transaction amount for each arc");
 		pl.itemsName = "arcs";
-		pl.expectedUpdates = g.numArcs();
-
-		int length;
-		for (long i = 0; i < BigArrays.length(transactionAmount); i++) {
-			try {
-				length = fbis.readGamma();
-			} catch (EOFException e) {
-				break;
-			}
+		pl.expectedUpdates = index.numArcs();
 
-			BigArrays.set(transactionAmount, i, length);
+		Utils.invokeAll(Utils.ranges(index.numNodes(), threads, (from, to) -> {
+			final LabelIndex.Reader reader = index.reader();
+			final long firstArc = index.firstArc((int) from), lastArc = index.firstArc((int) to);
 
-			// Each transaction is {transactionSize} long for a total of:
-			final long size = (long) length * transactionSize;
-			fbis.skip(size);
+			reader.position((int) from);
+			for (long arc = firstArc; arc < lastArc; arc++)
+				BigArrays.set(transactionAmount, arc, reader.skipLabel());
 
-			pl.lightUpdate();
-		}
+			synchronized (pl) { pl.update(lastArc - firstArc); }
+			return null;
+		}), threads);
 		pl.done();
-		fbis.close();
 
 		BinIO.storeInts(transactionAmount, jsapResult.getString("output"));
 	}
@@ -0,0 +1,158 @@
+package it.unimi.dsi.law;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/** Measures the resources used by the process while a stage runs: wall and CPU time, time spent in garbage
+ * collection, peak heap and off-heap use, and bytes read and written.
+ *
+ * <p>All measures are of the whole process, so they are those of a stage only if no other stage runs at the same
+ * time. CPU time includes the threads of the virtual machine (the collector and the compiler). Peak uses are sampled
+ * every {@link #SAMPLING_INTERVAL} milliseconds: the heap in use, and the off-heap memory of the direct and mapped
+ * buffers (the latter being the size of the mappings, which live in the page cache). Bytes read and written are those
+ * requested by the process and those actually transferred to and from storage, as reported by
+ * <code>/proc/self/io</code>; files read through memory mappings only appear in the latter. Measures that cannot be
+ * taken on the platform are -1. */
+public class StageMetrics {
+	/** The interval, in milliseconds, at which memory use is sampled. */
+	public static final int SAMPLING_INTERVAL = 10;
+	private static final Path PROC_IO = Paths.get("/proc/self/io");
+	private static final String[] IO_FIELDS = {"rchar", "wchar", "read_bytes", "write_bytes"};
+
+	private final long startWall, startCpu, startGc, startCollections;
+	private final long[] startIo;
+	private final Thread sampler;
+	private volatile boolean running = true;
+	private long peakHeap, peakOffHeap;
+
+	private long wall, cpu, gc, collections;
+	private long[] io;
+
+	private StageMetrics() {
+		this.startIo = io();
+		this.startGc = gcTime();
+		this.startCollections = collections();
+		this.startCpu = cpuTime();
+		this.startWall = System.nanoTime();
+
+		this.sampler = new Thread(() -> {
+			while (this.running) {
+				this.sample();
+				try {
+					Thread.sleep(SAMPLING_INTERVAL);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "StageMetrics sampler");
+		this.sampler.setDaemon(true);
+		this.sample();
+		this.sampler.start();
+	}
+
+	/** Starts measuring. */
+	public static StageMetrics start() {
+		return new StageMetrics();
+	}
+
+	/** Stops measuring; the measures are those between the start and this call. */
+	public void stop() {
+		this.wall = System.nanoTime() - this.startWall;
+		final long cpu = cpuTime();
+		this.cpu = cpu == -1 ? -1 : cpu - this.startCpu;
+		this.gc = gcTime() - this.startGc;
+		this.collections = collections() - this.startCollections;
+		final long[] io = io();
+		this.io = new long[io.length];
+		for (int i = 0; i < io.length; i++) this.io[i] = io[i] == -1 ? -1 : io[i] - this.startIo[i];
+
+		this.running = false;
+		this.sampler.interrupt();
+		try {
+			this.sampler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.sample();
+	}
+
+	private synchronized void sample() {
+		this.peakHeap = Math.max(this.peakHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		long offHeap = 0;
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) offHeap += Math.max(0, pool.getMemoryUsed());
+		this.peakOffHeap = Math.max(this.peakOffHeap, offHeap);
+	}
+
+	public double wallSeconds() {
+		return this.wall / 1e9;
+	}
+
+	/** Prints the measures as the members of a JSON object, one per line, with the given number of items processed
+	 * by the stage (e.g., rows or arcs) and its throughput. */
+	public synchronized void print(String items, long count, String indent, PrintWriter out) {
+		out.println(indent + "\"wallSeconds\": " + seconds(this.wall) + ",");
+		out.println(indent + "\"cpuSeconds\": " + (this.cpu == -1 ? "-1" : seconds(this.cpu)) + ",");
+		out.println(indent + "\"gcSeconds\": " + seconds(this.gc * 1_000_000) + ",");
+		out.println(indent + "\"collections\": " + this.collections + ",");
+		out.println(indent + "\"" + items + "\": " + count + ",");
+		out.println(indent + "\"" + items + "PerSecond\": " + String.format(Locale.ROOT, "%.1f", count / Math.max(1e-9, this.wallSeconds())) + ",");
+		out.println(indent + "\"peakHeapBytes\": " + this.peakHeap + ",");
+		out.println(indent + "\"peakOffHeapBytes\": " + this.peakOffHeap + ",");
+		out.println(indent + "\"bytesRead\": " + this.io[0] + ",");
+		out.println(indent + "\"bytesWritten\": " + this.io[1] + ",");
+		out.println(indent + "\"storageBytesRead\": " + this.io[2] + ",");
+		out.print(indent + "\"storageBytesWritten\": " + this.io[3]);
+	}
+
+	private static String seconds(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e9);
+	}
+
+	private static long cpuTime() {
+		final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		return -1;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) time += Math.max(0, gc.getCollectionTime());
+		return time;
+	}
+
+	private static long collections() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	/** Returns the counters of {@link #IO_FIELDS} in <code>/proc/self/io</code>, or -1 for those not available. */
+	private static long[] io() {
+		final long[] result = new long[IO_FIELDS.length];
+		Arrays.fill(result, -1);
+		final List<String> lines;
+		try {
+			lines = Files.readAllLines(PROC_IO);
+		} catch (IOException | SecurityException e) {
+			return result;
+		}
+
+		for (String line : lines) {
+			final int colon = line.indexOf(':');
+			if (colon == -1) continue;
+			for (int i = 0; i < IO_FIELDS.length; i++) {
+				if (line.substring(0, colon).equals(IO_FIELDS[i])) result[i] = Long.parseLong(line.substring(colon + 1).trim());
+			}
+		}
+		return result;
+	}
+}
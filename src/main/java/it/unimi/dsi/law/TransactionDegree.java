@@ -14,17 +14,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class TransactionDegree {
 	private static final Logger logger = LoggerFactory.getLogger(TransactionDegree.class);
 	private static final ProgressLogger pl = new ProgressLogger(logger);
 
 	public static void main(String[] args) throws IOException, JSAPException {
-		final SimpleJSAP jsap = new SimpleJSAP(TransactionDegree.class.getName(), "Compute for each address the number of transactions in which it was involved.",
+		final SimpleJSAP jsap = new SimpleJSAP(TransactionDegree.class.getName(), "Compute for each address the number of transactions in which it was involved. " +
+				"Unless the transposed graph is provided, the labelled graph is scanned once and the transactions on each arc are attributed both to its source and to its target: " +
+				"this requires every input of a transaction to be linked to every output, loops included, as in the graphs built by Blockchain2Webgraph.",
 				new Parameter[]{
+						new FlaggedOption("transposed", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 't', "transposed", "The basename of the transposed of the labelled transaction graph; if given, outputs are counted on the transpose in a second pass."),
+						new FlaggedOption("transactions", JSAP.LONG_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'n', "transactions", "The number of transactions (i.e., one plus the largest transaction id in the labels), required by the single-pass mode."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
 						new UnflaggedOption("basename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the labelled transaction graph."),
-						new UnflaggedOption("basenameTransposed", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the transposed of the labelled transaction graph."),
 						new UnflaggedOption("outputBasename", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, false, "The optional basename of the output files storing the cardinalities for the amounts of inputs and outputs where at line x there is the number of nodes with x in/outputs."),
 				}
 		);
@@ -32,15 +39,32 @@ public class TransactionDegree {
 		final JSAPResult jsapResult = jsap.parse(args);
 		if (jsap.messagePrinted()) System.exit(1);
 
+		final int threads = jsapResult.getInt("threads");
 		final ArcLabelledImmutableGraph graph = ArcLabelledImmutableGraph.load(jsapResult.getString("basename"), pl);
-		pl.start("Computing transaction inputs cardinality");
-		final int[] transactionInput = transactionsPerNode(graph);
-		pl.done();
 
-		final ArcLabelledImmutableGraph transposed = ArcLabelledImmutableGraph.load(jsapResult.getString("basenameTransposed"), pl);
-		pl.start("Computing transaction outputs cardinality");
-		final int[] transactionOutput = transactionsPerNode(transposed);
-		pl.done();
+		final int[] transactionInput;
+		final int[] transactionOutput;
+
+		if (jsapResult.contains("transposed")) {
+			pl.start("Computing transaction inputs cardinality");
+			transactionInput = transactionsPerNode(graph, threads);
+			pl.done();
+
+			final ArcLabelledImmutableGraph transposed = ArcLabelledImmutableGraph.load(jsapResult.getString("transposed"), pl);
+			pl.start("Computing transaction outputs cardinality");
+			transactionOutput = transactionsPerNode(transposed, threads);
+			pl.done();
+		} else {
+			if (!jsapResult.contains("transactions"))
+				throw new JSAPException("The number of transactions is required when the transposed graph is not provided");
+
+			transactionInput = new int[graph.numNodes()];
+			transactionOutput = new int[graph.numNodes()];
+
+			pl.start("Computing transaction inputs and outputs cardinality");
+			transactionsPerNode(graph, jsapResult.getLong("transactions"), transactionInput, transactionOutput, threads);
+			pl.done();
+		}
 
 		final int[] totalTransactions = new int[transactionInput.length];
 		for (int i = 0; i < transactionInput.length; i++)
@@ -72,46 +96,115 @@ public class TransactionDegree {
 		return (ones / transactionData.length) * 100;
 	}
 
-	private static int[] transactionsPerNode(ArcLabelledImmutableGraph graph) {
+	/** Counts, for each node, the distinct transactions on its outgoing arcs. */
+	private static int[] transactionsPerNode(ArcLabelledImmutableGraph graph, int threads) {
 		pl.expectedUpdates = graph.numNodes();
 		pl.itemsName = "nodes";
 
 		final int[] transactionAmount = new int[graph.numNodes()];
-		final ArcLabelledNodeIterator it = graph.nodeIterator();
 
-		int t_index;
-		long[] transactionIds = new long[1024];
+		Utils.invokeAll(ranges(graph, threads, (it, from, to) -> {
+			final LongOpenHashSet transactions = new LongOpenHashSet();
 
-		for (int i = 0; i < transactionAmount.length; i++) {
-			t_index = 0;
-			final int node = it.nextInt();
-			final Label[] labels = it.labelArray();
+			for (int i = from; i < to; i++) {
+				final int node = it.nextInt();
+				final Label[] labels = it.labelArray();
 
-			for (int j = 0; j < it.outdegree(); j++) {
-				MergeableFixedWidthLongListLabel l = ((MergeableFixedWidthLongListLabel) labels[j]);
-				transactionIds = LongArrays.grow(transactionIds, t_index + l.value.length);
+				for (int j = 0; j < it.outdegree(); j++)
+					for (long transactionId : ((MergeableFixedWidthLongListLabel) labels[j]).value)
+						transactions.add(transactionId);
+
+				transactionAmount[node] = transactions.size();
+				clear(transactions);
+			}
+		}), threads);
+
+		return transactionAmount;
+	}
+
+	/** Counts, for each node, the distinct transactions on its outgoing arcs (stored in <code>transactionInput</code>)
+	 * and on its incoming arcs (stored in <code>transactionOutput</code>) with a single scan of the graph.
+	 *
+	 * <p>Every transaction is claimed, through a shared bit vector, by the first source that finds it among its
+	 * labels. Since every input of a transaction is linked to every output, the arcs of the claiming source
+	 * reach all the outputs of the transaction, so that each output is credited exactly once. */
+	private static void transactionsPerNode(ArcLabelledImmutableGraph graph, long numTransactions, int[] transactionInput, int[] transactionOutput, int threads) {
+		pl.expectedUpdates = graph.numNodes();
+		pl.itemsName = "nodes";
 
-				for (long transactionId: l.value) {
-					transactionIds[t_index++] = transactionId;
+		final AtomicLongArray claimed = new AtomicLongArray(Math.toIntExact((numTransactions + Long.SIZE - 1) / Long.SIZE));
+		final AtomicIntegerArray outputs = new AtomicIntegerArray(graph.numNodes());
+
+		Utils.invokeAll(ranges(graph, threads, (it, from, to) -> {
+			final LongOpenHashSet transactions = new LongOpenHashSet();
+			final LongOpenHashSet owned = new LongOpenHashSet();
+			long[] arcTransactions = LongArrays.EMPTY_ARRAY;
+
+			for (int i = from; i < to; i++) {
+				final int node = it.nextInt();
+				final int outdegree = it.outdegree();
+				final int[] successors = it.successorArray();
+				final Label[] labels = it.labelArray();
+
+				for (int j = 0; j < outdegree; j++)
+					for (long transactionId : ((MergeableFixedWidthLongListLabel) labels[j]).value)
+						if (transactions.add(transactionId) && claim(claimed, transactionId)) owned.add(transactionId);
+
+				transactionInput[node] = transactions.size();
+				clear(transactions);
+
+				if (owned.isEmpty()) continue;
+
+				// Labels may repeat a transaction, so each arc is deduplicated before crediting its target
+				for (int j = 0; j < outdegree; j++) {
+					final long[] value = ((MergeableFixedWidthLongListLabel) labels[j]).value;
+					arcTransactions = LongArrays.ensureCapacity(arcTransactions, value.length);
+					System.arraycopy(value, 0, arcTransactions, 0, value.length);
+					LongArrays.quickSort(arcTransactions, 0, value.length);
+
+					for (int k = 0; k < value.length; k++)
+						if ((k == 0 || arcTransactions[k] != arcTransactions[k - 1]) && owned.contains(arcTransactions[k]))
+							outputs.incrementAndGet(successors[j]);
 				}
+
+				clear(owned);
 			}
+		}), threads);
 
-			LongArrays.quickSort(transactionIds, 0, t_index);
-			transactionAmount[node] = countUnique(transactionIds, t_index);
+		for (int i = 0; i < transactionOutput.length; i++) transactionOutput[i] = outputs.get(i);
+	}
 
-			pl.lightUpdate();
-		}
+	private static boolean claim(AtomicLongArray claimed, long transactionId) {
+		final int word = (int) (transactionId >>> 6);
+		final long mask = 1L << transactionId;
 
-		return transactionAmount;
+		long current;
+		do {
+			current = claimed.get(word);
+			if ((current & mask) != 0) return false;
+		} while (!claimed.compareAndSet(word, current, current | mask));
+
+		return true;
 	}
 
-	public static int countUnique(long[] array, int to) {
-		if (array.length == 0)  return 0;
+	/** Clears a reusable set, shrinking it back if a hub made it grow too much. */
+	private static void clear(LongOpenHashSet set) {
+		set.clear();
+		set.trim(1024);
+	}
+
+	private interface RangeVisitor {
+		void visit(ArcLabelledNodeIterator it, int from, int to);
+	}
 
-		int unique = 1;
-		for (int i = 0; i < to - 1; i++)
-			if (array[i] != array[i + 1]) unique++;
-		return unique;
+	/** Splits the nodes of the graph in ranges and returns a task per range feeding the visitor with
+	 * an iterator positioned at the start of the range. */
+	private static List<Callable<Void>> ranges(ArcLabelledImmutableGraph graph, int threads, RangeVisitor visitor) {
+		return Utils.ranges(graph.numNodes(), threads, (from, to) -> {
+			visitor.visit(graph.copy().nodeIterator((int) from), (int) from, (int) to);
+			synchronized (pl) { pl.update(to - from); }
+			return null;
+		});
 	}
 
 	private static double mean(final int[] transactionData) {
@@ -132,4 +225,4 @@ public class TransactionDegree {
 
 		return IntArrays.trim(cardinality, maxd + 1);
 	}
-}
\ No newline at end of file
+}
@@ -1,31 +1,74 @@
 package it.unimi.dsi.law;
 
-import it.unimi.dsi.fastutil.BigArrays;
-import it.unimi.dsi.fastutil.io.BinIO;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
-import it.unimi.dsi.sux4j.mph.GOVMinimalPerfectHashFunction;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.FileLinesMutableStringIterable;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 
-import static it.unimi.dsi.law.graph.Parameters.*;
-
+/** Prints the input and output addresses of transactions, either interactively or, given a file of hashes, in batch.
+ *
+ * <p>In batch mode hashes are resolved in parallel, tables are accessed in transaction id order and addresses in
+ * address id order, so that reads on the memory-mapped structures are as sequential as possible; results are
+ * written in the order of the hashes, as TSV (hash, inputs and outputs, the latter separated by commas) or JSON lines. */
 public class TransactionUtility {
 	public static final Logger logger = LoggerFactory.getLogger(TransactionUtility.class);
 
-	public static void main(String[] args) throws IOException, ClassNotFoundException {
+	private interface Range {
+		void run(BlockchainIndex index, int from, int to) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(TransactionUtility.class.getName(), "Print the input and output addresses of the transactions read from standard input or, in batch, from a file.",
+				new Parameter[]{
+						new FlaggedOption("format", JSAP.STRING_PARSER, "tsv", JSAP.NOT_REQUIRED, 'f', "format", "The format of batch results: tsv or json (lines)."),
+						new FlaggedOption("output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'o', "output", "The file where batch results are written (default: standard output)."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads used in batch."),
+						new UnflaggedOption("hashes", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, false, "A file with one transaction hash per line, to be resolved in batch."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final String format = jsapResult.getString("format");
+		if (!format.equals("tsv") && !format.equals("json")) throw new IllegalArgumentException("Unknown format " + format);
+
 		logger.info("Loading necessary data structures...");
-		GOVMinimalPerfectHashFunction<CharSequence> transactionsMap = (GOVMinimalPerfectHashFunction<CharSequence>) BinIO.loadObject(transactionsMapFile.toFile());
-		Object[][] addressInverseMap = (Object[][]) BinIO.loadObject(addressesInverseMapFile.toFile());
 
-		Long2ObjectOpenHashMap<LongOpenHashSet> transactionInputs = (Long2ObjectOpenHashMap<LongOpenHashSet>) BinIO.loadObject(transactionInputsFile.toFile());
-		Long2ObjectOpenHashMap<LongOpenHashSet> transactionOutputs = (Long2ObjectOpenHashMap<LongOpenHashSet>) BinIO.loadObject(transactionOutputsFile.toFile());
+		try (BlockchainIndex index = BlockchainIndex.load()) {
+			if (!jsapResult.contains("hashes")) {
+				interactive(index);
+				return;
+			}
+
+			final List<String> hashes = new ObjectArrayList<>();
+			for (MutableString line : new FileLinesMutableStringIterable(jsapResult.getString("hashes"))) {
+				if (line.trim().length() > 0) hashes.add(line.toString());
+			}
+
+			final OutputStream stream = jsapResult.contains("output") ? new FileOutputStream(jsapResult.getString("output")) : System.out;
+			try (PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16))) {
+				batch(index, hashes, format.equals("json"), jsapResult.getInt("threads"), out);
+			}
+		}
+	}
 
+	private static void interactive(BlockchainIndex index) throws IOException {
 		Scanner sc = new Scanner(System.in);
 		XoRoShiRo128PlusRandom r = new XoRoShiRo128PlusRandom();
 
@@ -34,7 +77,7 @@ public class TransactionUtility {
 
 			String transaction;
 			try {
-				transaction = sc.nextLine();
+				transaction = sc.nextLine().trim();
 			} catch (NoSuchElementException e) {
 				return;
 			}
@@ -43,20 +86,112 @@ public class TransactionUtility {
 
 			if (transaction.equals("")) {
 				System.out.println("Picking a random transaction");
-				transactionId = r.nextLong(transactionsMap.size64());
+				transactionId = r.nextLong(index.numTransactions());
+				transaction = index.transaction(transactionId);
 			} else {
-				transactionId = transactionsMap.getLong(transaction);
+				transactionId = index.transactionId(transaction);
+			}
+
+			if (transactionId == -1) {
+				System.out.println("Unknown transaction " + transaction);
+				continue;
 			}
 
 			System.out.println(transaction + " (id: " + transactionId + ")");
 
-			LongOpenHashSet inputs = transactionInputs.get(transactionId);
-			System.out.println("Inputs (" + inputs.size() + "):");
-			inputs.forEach(id -> System.out.println("\t" + BigArrays.get(addressInverseMap, id)));
+			long[] inputs = index.inputs(transactionId);
+			System.out.println("Inputs (" + inputs.length + "):");
+			for (long id : inputs) System.out.println("\t" + index.address(id));
 
-			LongOpenHashSet outputs = transactionOutputs.get(transactionId);
-			System.out.println("Outputs (" + outputs.size() + "):");
-			outputs.forEach(id -> System.out.println("\t" + BigArrays.get(addressInverseMap, id)));
+			long[] outputs = index.outputs(transactionId);
+			System.out.println("Outputs (" + outputs.length + "):");
+			for (long id : outputs) System.out.println("\t" + index.address(id));
 		}
 	}
+
+	/** Resolves the given transaction hashes and writes their inputs and outputs, in the same order; unknown hashes
+	 * are reported with empty lists (TSV) or an error (JSON). */
+	public static void batch(BlockchainIndex index, List<String> hashes, boolean json, int threads, PrintWriter out) throws IOException {
+		final int n = hashes.size();
+		final ProgressLogger progress = Utils.getProgressLogger(TransactionUtility.class, "transactions");
+		progress.start("Resolving " + n + " transactions");
+
+		final long[] ids = new long[n];
+		parallel(index, n, threads, (copy, from, to) -> {
+			for (int i = from; i < to; i++) ids[i] = copy.transactionId(hashes.get(i));
+		});
+
+		// Read the tables in id order
+		int known = 0;
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++) if (ids[i] != -1) order[known++] = i;
+		final int[] sorted = Arrays.copyOf(order, known);
+		IntArrays.parallelQuickSort(sorted, (x, y) -> Long.compare(ids[x], ids[y]));
+
+		final long[][] inputs = new long[n][], outputs = new long[n][];
+		parallel(index, sorted.length, threads, (copy, from, to) -> {
+			for (int i = from; i < to; i++) {
+				inputs[sorted[i]] = copy.inputs(ids[sorted[i]]);
+				outputs[sorted[i]] = copy.outputs(ids[sorted[i]]);
+			}
+		});
+
+		// Resolve each distinct address once, in id order
+		final LongOpenHashSet distinct = new LongOpenHashSet();
+		for (int i : sorted) {
+			distinct.addAll(LongArrayList.wrap(inputs[i]));
+			distinct.addAll(LongArrayList.wrap(outputs[i]));
+		}
+		final long[] addressIds = distinct.toLongArray();
+		LongArrays.parallelQuickSort(addressIds);
+
+		final String[] addresses = new String[addressIds.length];
+		parallel(index, addressIds.length, threads, (copy, from, to) -> {
+			for (int i = from; i < to; i++) addresses[i] = copy.address(addressIds[i]);
+		});
+		progress.done(n);
+
+		for (int i = 0; i < n; i++) {
+			if (json) {
+				out.print("{\"transaction\":");
+				QueryServer.string(hashes.get(i), out);
+				if (ids[i] == -1) out.print(",\"error\":\"unknown transaction\"}");
+				else {
+					out.print(",\"inputs\":");
+					print(inputs[i], addressIds, addresses, true, out);
+					out.print(",\"outputs\":");
+					print(outputs[i], addressIds, addresses, true, out);
+					out.print('}');
+				}
+			} else {
+				out.print(hashes.get(i));
+				out.print('\t');
+				if (ids[i] != -1) print(inputs[i], addressIds, addresses, false, out);
+				out.print('\t');
+				if (ids[i] != -1) print(outputs[i], addressIds, addresses, false, out);
+			}
+			out.print('\n');
+		}
+
+		if (known < n) logger.warn((n - known) + " unknown transactions");
+	}
+
+	private static void print(long[] list, long[] addressIds, String[] addresses, boolean json, PrintWriter out) {
+		if (json) out.print('[');
+		for (int j = 0; j < list.length; j++) {
+			if (j > 0) out.print(',');
+			final String address = addresses[Arrays.binarySearch(addressIds, list[j])];
+			if (json) QueryServer.string(address, out);
+			else out.print(address);
+		}
+		if (json) out.print(']');
+	}
+
+	/** Splits [0..n) in ranges processed in parallel, each with its own copy of the index. */
+	private static void parallel(BlockchainIndex index, int n, int threads, Range range) {
+		Utils.invokeAll(Utils.ranges(n, threads, (from, to) -> {
+			range.run(index.copy(), (int) from, (int) to);
+			return null;
+		}), threads);
+	}
 }
@@ -0,0 +1,55 @@
+package it.unimi.dsi.law;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** A lock-free union-find structure on the integers [0..n), which any number of threads can update concurrently.
+ *
+ * <p>The larger root is always linked under the smaller one, so that parents never exceed their children,
+ * concurrent links cannot create cycles, and the root of each set is its smallest element. */
+public class UnionFind {
+	private final AtomicIntegerArray parent;
+
+	public UnionFind(int n) {
+		this.parent = new AtomicIntegerArray(n);
+		for (int i = 0; i < n; i++) this.parent.set(i, i);
+	}
+
+	public int size() {
+		return this.parent.length();
+	}
+
+	/** Returns the root of the set of the given element, halving the path along the way. */
+	public int find(int x) {
+		for (;;) {
+			final int p = this.parent.get(x);
+			if (p == x) return x;
+			final int gp = this.parent.get(p);
+			if (p != gp) this.parent.compareAndSet(x, p, gp);
+			x = gp;
+		}
+	}
+
+	/** Joins the sets of the given elements. */
+	public void union(int a, int b) {
+		for (;;) {
+			a = this.find(a);
+			b = this.find(b);
+			if (a == b) return;
+			if (this.parent.compareAndSet(Math.max(a, b), Math.max(a, b), Math.min(a, b))) return;
+		}
+	}
+
+	/** Returns the set of each element, sets being numbered in the order of their smallest element.
+	 * Must not be called while other threads are updating the structure. */
+	public int[] sets() {
+		final int n = this.size();
+		final int[] set = new int[n];
+		int numSets = 0;
+		// Roots are the smallest elements of their set, so they are numbered before the other elements see them
+		for (int i = 0; i < n; i++) {
+			final int root = this.find(i);
+			set[i] = root == i ? numSets++ : set[root];
+		}
+		return set;
+	}
+}
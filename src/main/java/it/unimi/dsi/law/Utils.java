@@ -1,23 +1,58 @@
 package it.unimi.dsi.law;
 
 import com.google.common.collect.Iterators;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongBigList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.io.InputBitStream;
 import it.unimi.dsi.io.FileLinesMutableStringIterable;
 import it.unimi.dsi.io.FileLinesMutableStringIterable.FileLinesIterator;
 import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.util.ByteBufferLongBigList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static it.unimi.dsi.law.graph.Parameters.logInterval;
 import static it.unimi.dsi.law.graph.Parameters.logTimeUnit;
 
 public class Utils {
+	/** The number of ranges assigned to each thread by {@link #ranges(long, int, Range)}, so that ranges of uneven
+	 * cost (e.g., around hubs) are balanced across threads. */
+	public static final int RANGES_PER_THREAD = 16;
+	/** The extension of the inverse of a file of address ids of nodes (see {@link #nodes(Path, long)}). */
+	public static final String INVERSE_EXTENSION = ".inverse";
+
+	/** A task processing the items in [<code>from</code>..<code>to</code>). */
+	@FunctionalInterface
+	public interface Range<T> {
+		T run(long from, long to) throws Exception;
+	}
+
 	public static ProgressLogger getProgressLogger(Class<?> cls, String itemsName) {
 		Logger logger = LoggerFactory.getLogger(cls);
 		ProgressLogger progress = new ProgressLogger(logger, logInterval, logTimeUnit, itemsName);
@@ -26,6 +61,123 @@ public class Utils {
 		return progress;
 	}
 
+	/** Runs the given tasks on a fixed pool of the given size and returns their results in submission order.
+	 * Exceptions thrown by a task are rethrown wrapped in a {@link RuntimeException}. */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int threads) {
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			final List<T> results = new ArrayList<>(tasks.size());
+			for (Future<T> future : executor.invokeAll(tasks)) results.add(future.get());
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Returns the number of ranges in which {@link #ranges(long, int, Range)} splits <code>n</code> items. */
+	public static int numRanges(long n, int threads) {
+		return (int) Math.max(1, Math.min(n, (long) threads * RANGES_PER_THREAD));
+	}
+
+	/** Splits [0..<code>n</code>) in {@link #numRanges(long, int)} consecutive ranges of almost equal size, to be
+	 * passed to {@link #invokeAll(List, int)}, and returns a task per range. */
+	public static <T> List<Callable<T>> ranges(long n, int threads, Range<T> range) {
+		final int ranges = numRanges(n, threads);
+		final List<Callable<T>> tasks = new ArrayList<>(ranges);
+		for (int r = 0; r < ranges; r++) {
+			final long from = n * r / ranges, to = n * (r + 1) / ranges;
+			tasks.add(() -> range.run(from, to));
+		}
+		return tasks;
+	}
+
+	/** Returns an iterator over zero followed by the prefix sums of the <code>n</code> &gamma;-coded deltas in the given file,
+	 * suitable to build an Elias&ndash;Fano list of offsets. */
+	public static LongIterator prefixSums(File deltas, long n) throws IOException {
+		final InputBitStream ibs = new InputBitStream(deltas);
+
+		return new LongIterator() {
+			private long sum = 0;
+			private long i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return this.i <= n;
+			}
+
+			@Override
+			public long nextLong() {
+				try {
+					if (this.i++ > 0) this.sum += ibs.readLongGamma();
+					if (this.i > n) ibs.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return this.sum;
+			}
+		};
+	}
+
+	/** Resolves addresses to the nodes of a graph built by {@link it.unimi.dsi.law.graph.Blockchain2Webgraph},
+	 * going through the address map and then the node of each address id (see {@link #nodes(Path, long)}).
+	 *
+	 * @return the node of each address, or -1 if the address is unknown or not in the graph. */
+	public static int[] addressesToNodes(List<byte[]> addresses, GOV3Function<byte[]> addressMap, LongBigList nodeOfAddress) {
+		final int[] nodes = new int[addresses.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			final long id = addressMap.getLong(addresses.get(i));
+			nodes[i] = id == addressMap.defaultReturnValue() ? -1 : (int) nodeOfAddress.getLong(id);
+		}
+		return nodes;
+	}
+
+	/** Returns the node of each address id (-1 for addresses not in the graph), memory-mapped from the inverse of the
+	 * given address ids of the nodes, stored next to them with <code>{@value #INVERSE_EXTENSION}</code> appended; the
+	 * inverse is computed if missing or older than the ids. */
+	public static ByteBufferLongBigList nodes(Path ids, long numAddresses) throws IOException {
+		final Path inverse = Paths.get(ids + INVERSE_EXTENSION);
+		if (!Files.exists(inverse) || Files.getLastModifiedTime(inverse).compareTo(Files.getLastModifiedTime(ids)) < 0) invert(ids, inverse, numAddresses);
+		return mapLongs(inverse);
+	}
+
+	/** Writes the node of each address id, as a long, given the address id of each node. */
+	public static void invert(Path ids, Path inverse, long numAddresses) throws IOException {
+		final int[][] node = IntBigArrays.newBigArray(numAddresses);
+		BigArrays.fill(node, -1);
+		int n = 0;
+		for (LongIterator it = BinIO.asLongIterator(ids.toFile()); it.hasNext(); n++) BigArrays.set(node, it.nextLong(), n);
+
+		try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(Files.newOutputStream(inverse)))) {
+			for (long a = 0; a < numAddresses; a++) out.writeLong(BigArrays.get(node, a));
+		}
+	}
+
+	/** Memory-maps a file of big-endian longs. */
+	public static ByteBufferLongBigList mapLongs(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return ByteBufferLongBigList.map(channel);
+		}
+	}
+
+	/** Searches for a key in the sorted range [from..to) of an array, probing positions at exponentially increasing
+	 * distances from <code>from</code> before a binary search; a sequence of increasing keys can thus be looked up in
+	 * time logarithmic in the gaps between consecutive matches by restarting from the previous insertion point.
+	 *
+	 * @return the index of the key, if found, or (-(insertion point) - 1), as in {@link Arrays#binarySearch(int[], int, int, int)}. */
+	public static int gallop(int[] a, int from, int to, int key) {
+		int lo = from, step = 1;
+		while (lo + step < to && a[lo + step] < key) {
+			lo += step;
+			step <<= 1;
+		}
+		return Arrays.binarySearch(a, lo, Math.min(to, lo + step + 1), key);
+	}
+
 	public static CharSequence column(MutableString line, int col) {
 		int start = 0, inc;
 		while (col-- > 0) {
@@ -0,0 +1,422 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleBigArrays;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.logging.ProgressLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/** Parallel statistics over node-indexed vectors accessed through a {@link MappedVector}.
+ *
+ * <p>Integral vectors (such as degrees) are reduced in a single pass to the counts of their distinct values,
+ * from which everything else is computed exactly. For real-valued vectors, moments and histograms take a
+ * single pass each, and quantiles are found exactly by refining a histogram around the target rank until the
+ * candidates fit in memory; the Gini coefficient is the only statistic that needs the sorted values in memory. */
+public class VectorStatistics {
+	private static final Logger logger = LoggerFactory.getLogger(VectorStatistics.class);
+	private static final ProgressLogger pl = new ProgressLogger(logger);
+
+	/** The number of bins used to refine quantiles at each pass. */
+	private static final int REFINEMENT_BINS = 1 << 16;
+	/** The number of candidates below which a quantile is found by sorting them. */
+	private static final int CANDIDATES_LIMIT = 1 << 22;
+
+	/** Count, sum, harmonic sum, minimum and maximum of the values, where NaNs are counted apart and
+	 * zeros do not contribute to the harmonic mean. */
+	public static final class Moments implements MappedVector.Visitor {
+		public long count, harmonicCount, nans;
+		public double sum, harmonicSum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+		@Override
+		public void visit(long index, double value) {
+			this.add(value, 1);
+		}
+
+		public void add(double value, long times) {
+			if (Double.isNaN(value)) {
+				this.nans += times;
+				return;
+			}
+
+			this.count += times;
+			this.sum += value * times;
+			if (value != 0) {
+				this.harmonicSum += times / value;
+				this.harmonicCount += times;
+			}
+			if (value < this.min) this.min = value;
+			if (value > this.max) this.max = value;
+		}
+
+		public void merge(Moments other) {
+			this.count += other.count;
+			this.harmonicCount += other.harmonicCount;
+			this.nans += other.nans;
+			this.sum += other.sum;
+			this.harmonicSum += other.harmonicSum;
+			this.min = Math.min(this.min, other.min);
+			this.max = Math.max(this.max, other.max);
+		}
+
+		public double mean() {
+			return this.sum / this.count;
+		}
+
+		public double harmonicMean() {
+			return this.harmonicCount / this.harmonicSum;
+		}
+	}
+
+	/** A histogram with equal-width bins over [<code>lower</code>..<code>upper</code>]; values out of range and NaNs are ignored. */
+	public static class Histogram implements MappedVector.Visitor {
+		public final double lower, upper;
+		public final long[] counts;
+
+		public Histogram(double lower, double upper, int bins) {
+			this.lower = lower;
+			this.upper = upper;
+			this.counts = new long[bins];
+		}
+
+		/** Returns the bin of the given value, clamping it to the first or last bin. */
+		public int bin(double value) {
+			if (!(this.upper > this.lower)) return 0;
+			final int bin = (int) ((value - this.lower) / (this.upper - this.lower) * this.counts.length);
+			return Math.max(0, Math.min(this.counts.length - 1, bin));
+		}
+
+		public double lowerBound(int bin) {
+			return this.lower + (this.upper - this.lower) * bin / this.counts.length;
+		}
+
+		@Override
+		public void visit(long index, double value) {
+			this.add(value, 1);
+		}
+
+		public void add(double value, long times) {
+			if (value >= this.lower && value <= this.upper) this.counts[this.bin(value)] += times;
+		}
+
+		public void merge(Histogram other) {
+			for (int i = 0; i < this.counts.length; i++) this.counts[i] += other.counts[i];
+		}
+
+		/** Stores the histogram as text, one bin per line with its lower bound and count. */
+		public void store(String filename) throws IOException {
+			try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(Paths.get(filename)))) {
+				for (int i = 0; i < this.counts.length; i++) pw.println(this.lowerBound(i) + "\t" + this.counts[i]);
+			}
+		}
+	}
+
+	/** The number of occurrences of each distinct value of an integral vector; small non-negative values,
+	 * the vast majority for degree-like data, are counted in an array. */
+	public static final class Counts implements MappedVector.Visitor {
+		private static final int DENSE = 1 << 16;
+		private final long[] dense = new long[DENSE];
+		private final Long2LongOpenHashMap sparse = new Long2LongOpenHashMap();
+
+		@Override
+		public void visit(long index, double value) {
+			final long v = (long) value;
+			if (v >= 0 && v < DENSE) this.dense[(int) v]++;
+			else this.sparse.addTo(v, 1);
+		}
+
+		public void merge(Counts other) {
+			for (int i = 0; i < DENSE; i++) this.dense[i] += other.dense[i];
+			for (Long2LongMap.Entry e : other.sparse.long2LongEntrySet()) this.sparse.addTo(e.getLongKey(), e.getLongValue());
+		}
+
+		/** Returns the distinct values in increasing order and, in a second array, their counts. */
+		public long[][] sorted() {
+			final long[] values = new long[DENSE + this.sparse.size()];
+			final long[] counts = new long[values.length];
+			int n = 0;
+
+			for (long v : this.sparse.keySet()) values[n++] = v;
+			for (int v = 0; v < DENSE; v++) if (this.dense[v] != 0) values[n++] = v;
+			LongArrays.radixSort(values, 0, n);
+
+			for (int i = 0; i < n; i++)
+				counts[i] = values[i] >= 0 && values[i] < DENSE ? this.dense[(int) values[i]] : this.sparse.get(values[i]);
+
+			return new long[][] { LongArrays.trim(values, n), LongArrays.trim(counts, n) };
+		}
+	}
+
+	public static Moments moments(MappedVector vector, int threads) {
+		pl.start("Computing moments");
+		final Moments moments = new Moments();
+		for (Moments m : vector.scan(Moments::new, threads, pl)) moments.merge(m);
+		pl.done();
+		return moments;
+	}
+
+	public static Histogram histogram(MappedVector vector, double lower, double upper, int bins, int threads) {
+		pl.start("Computing histogram");
+		final Histogram histogram = new Histogram(lower, upper, bins);
+		for (Histogram h : vector.scan(() -> new Histogram(lower, upper, bins), threads, pl)) histogram.merge(h);
+		pl.done();
+		return histogram;
+	}
+
+	public static Counts counts(MappedVector vector, int threads) {
+		pl.start("Counting values");
+		final Counts counts = new Counts();
+		for (Counts c : vector.scan(Counts::new, threads, pl)) counts.merge(c);
+		pl.done();
+		return counts;
+	}
+
+	/** Returns the 0-based rank of the given quantile with the nearest-rank definition. */
+	private static long rank(double quantile, long n) {
+		return Math.max(0, Math.min(n - 1, (long) Math.ceil(quantile * n) - 1));
+	}
+
+	/** Computes the Gini coefficient as (2 / n) &Sigma;<sub>i</sub> i x<sub>i</sub> / &Sigma;<sub>i</sub> x<sub>i</sub> &minus; (n + 1) / n,
+	 * where the x<sub>i</sub> are the values sorted in increasing order and i starts from zero. */
+	private static double gini(double n, double sum, double weightedSum) {
+		return (2 / n) * (weightedSum / sum) - ((n + 1) / n);
+	}
+
+	public static double gini(long[][] sortedCounts) {
+		final long[] values = sortedCounts[0], counts = sortedCounts[1];
+		double sum = 0, weightedSum = 0;
+		long rank = 0;
+
+		// A run of c equal values v starting at rank r contributes v (c r + c (c - 1) / 2)
+		for (int i = 0; i < values.length; i++) {
+			final double c = counts[i];
+			sum += c * values[i];
+			weightedSum += values[i] * (c * rank + c * (c - 1) / 2);
+			rank += counts[i];
+		}
+
+		return gini(rank, sum, weightedSum);
+	}
+
+	/** Returns the Gini coefficient of the vector: integral vectors are counted, other vectors are sorted in memory. */
+	public static double gini(MappedVector vector, int threads) {
+		if (vector.type().integral) return gini(counts(vector, threads).sorted());
+
+		pl.start("Loading values");
+		final double[][] values = DoubleBigArrays.newBigArray(vector.size64());
+		vector.scan(() -> (index, value) -> BigArrays.set(values, index, value), threads, pl);
+		pl.done();
+
+		pl.logger.info("Sorting values");
+		DoubleBigArrays.parallelQuickSort(values);
+
+		// NaNs are sorted last and ignored
+		long n = 0;
+		double sum = 0, weightedSum = 0;
+		for (long i = 0; i < BigArrays.length(values); i++) {
+			final double value = BigArrays.get(values, i);
+			if (Double.isNaN(value)) break;
+			sum += value;
+			weightedSum += i * value;
+			n++;
+		}
+
+		return gini(n, sum, weightedSum);
+	}
+
+	public static double[] quantiles(long[][] sortedCounts, double[] quantiles) {
+		final long[] values = sortedCounts[0], counts = sortedCounts[1];
+		long n = 0;
+		for (long c : counts) n += c;
+
+		final double[] result = new double[quantiles.length];
+		for (int q = 0; q < quantiles.length; q++) {
+			final long rank = rank(quantiles[q], n);
+			long seen = 0;
+			for (int i = 0; i < values.length; i++) {
+				seen += counts[i];
+				if (seen > rank) {
+					result[q] = values[i];
+					break;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/** Returns the exact quantiles of the non-NaN values of a real-valued vector, given its moments.
+	 *
+	 * <p>Each quantile is located by a chain of histograms: the first spans all values, and each following one
+	 * spans the values that fell in the bin of the previous one containing the target rank. When the candidates
+	 * are few enough they are collected and sorted; when they are all equal, the quantile is found. */
+	public static double[] quantiles(MappedVector vector, Moments moments, double[] quantiles, int threads) {
+		final double[] result = new double[quantiles.length];
+
+		for (int q = 0; q < quantiles.length; q++) {
+			final List<Histogram> levels = new ArrayList<>();
+			final IntArrayList bins = new IntArrayList();
+			long rank = rank(quantiles[q], moments.count);
+			double lower = moments.min, upper = moments.max;
+
+			while (upper > lower) {
+				final double l = lower, u = upper;
+				final Refinement level = new Refinement(levels, bins, l, u);
+				pl.start("Refining quantile " + quantiles[q] + " over [" + l + ".." + u + "]");
+				for (Refinement r : vector.scan(() -> new Refinement(levels, bins, l, u), threads, pl)) level.merge(r);
+				pl.done();
+
+				int bin = 0;
+				while (rank >= level.counts[bin]) rank -= level.counts[bin++];
+
+				levels.add(level);
+				bins.add(bin);
+				lower = level.min[bin];
+				upper = level.max[bin];
+
+				if (upper > lower && level.counts[bin] <= CANDIDATES_LIMIT) {
+					pl.start("Collecting " + level.counts[bin] + " candidates for quantile " + quantiles[q]);
+					final DoubleArrayList candidates = new DoubleArrayList();
+					for (Candidates c : vector.scan(() -> new Candidates(levels, bins), threads, pl)) candidates.addAll(c.values);
+					pl.done();
+
+					final double[] sorted = candidates.toDoubleArray();
+					Arrays.sort(sorted);
+					lower = upper = sorted[(int) rank];
+				}
+			}
+
+			result[q] = lower;
+		}
+
+		return result;
+	}
+
+	/** Returns whether a non-NaN value fell in the chosen bin of every previous level. */
+	private static boolean selected(double value, List<Histogram> levels, IntArrayList bins) {
+		for (int l = 0; l < levels.size(); l++) if (levels.get(l).bin(value) != bins.getInt(l)) return false;
+		return true;
+	}
+
+	/** A histogram of the values selected by the previous levels, keeping also the extremes of each bin. */
+	private static final class Refinement extends Histogram {
+		private final List<Histogram> levels;
+		private final IntArrayList bins;
+		private final double[] min, max;
+
+		private Refinement(List<Histogram> levels, IntArrayList bins, double lower, double upper) {
+			super(lower, upper, REFINEMENT_BINS);
+			this.levels = levels;
+			this.bins = bins;
+			this.min = new double[REFINEMENT_BINS];
+			this.max = new double[REFINEMENT_BINS];
+			Arrays.fill(this.min, Double.POSITIVE_INFINITY);
+			Arrays.fill(this.max, Double.NEGATIVE_INFINITY);
+		}
+
+		@Override
+		public void visit(long index, double value) {
+			if (Double.isNaN(value) || !selected(value, this.levels, this.bins)) return;
+
+			final int bin = this.bin(value);
+			this.counts[bin]++;
+			if (value < this.min[bin]) this.min[bin] = value;
+			if (value > this.max[bin]) this.max[bin] = value;
+		}
+
+		private void merge(Refinement other) {
+			super.merge(other);
+			for (int i = 0; i < REFINEMENT_BINS; i++) {
+				this.min[i] = Math.min(this.min[i], other.min[i]);
+				this.max[i] = Math.max(this.max[i], other.max[i]);
+			}
+		}
+	}
+
+	private static final class Candidates implements MappedVector.Visitor {
+		private final List<Histogram> levels;
+		private final IntArrayList bins;
+		private final DoubleArrayList values = new DoubleArrayList();
+
+		private Candidates(List<Histogram> levels, IntArrayList bins) {
+			this.levels = levels;
+			this.bins = bins;
+		}
+
+		@Override
+		public void visit(long index, double value) {
+			if (!Double.isNaN(value) && selected(value, this.levels, this.bins)) this.values.add(value);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(VectorStatistics.class.getName(), "Compute statistics of a node-indexed vector in binary form, memory-mapping it and scanning it in parallel.",
+				new Parameter[]{
+						new FlaggedOption("type", JSAP.STRING_PARSER, "double", JSAP.NOT_REQUIRED, 't', "type", "The type of the elements of the vector (int, long, float or double)."),
+						new Switch("gini", 'g', "gini", "Compute the Gini coefficient (in memory for real-valued vectors)."),
+						new FlaggedOption("quantiles", JSAP.DOUBLE_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'q', "quantiles", "Quantiles to compute, as comma-separated values in [0..1].").setList(true).setListSeparator(','),
+						new FlaggedOption("bins", JSAP.INTEGER_PARSER, "100", JSAP.NOT_REQUIRED, 'b', "bins", "The number of bins of the histogram."),
+						new FlaggedOption("histogram", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'h', "histogram", "Store the histogram of the values over [min..max] as text in this file."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+						new UnflaggedOption("vector", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The vector in binary form."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final int threads = jsapResult.getInt("threads");
+		final int bins = jsapResult.getInt("bins");
+		final double[] quantiles = jsapResult.getDoubleArray("quantiles");
+		final MappedVector.Type type = MappedVector.Type.valueOf(jsapResult.getString("type").toUpperCase(Locale.ROOT));
+
+		try (MappedVector vector = new MappedVector(Paths.get(jsapResult.getString("vector")), type)) {
+			final Moments moments = new Moments();
+			final double[] q;
+			Histogram histogram = null;
+			double gini = Double.NaN;
+
+			if (type.integral) {
+				final long[][] counts = counts(vector, threads).sorted();
+				for (int i = 0; i < counts[0].length; i++) moments.add(counts[0][i], counts[1][i]);
+
+				if (jsapResult.contains("histogram")) {
+					histogram = new Histogram(moments.min, moments.max, bins);
+					for (int i = 0; i < counts[0].length; i++) histogram.add(counts[0][i], counts[1][i]);
+				}
+
+				q = quantiles(counts, quantiles);
+				if (jsapResult.getBoolean("gini")) gini = gini(counts);
+			} else {
+				moments.merge(moments(vector, threads));
+				if (jsapResult.contains("histogram")) histogram = histogram(vector, moments.min, moments.max, bins, threads);
+				q = quantiles(vector, moments, quantiles, threads);
+				if (jsapResult.getBoolean("gini")) gini = gini(vector, threads);
+			}
+
+			System.out.println("Elements: " + vector.size64() + " (" + moments.nans + " NaNs)");
+			System.out.println("Minimum: " + moments.min);
+			System.out.println("Maximum: " + moments.max);
+			System.out.println("Mean: " + moments.mean());
+			System.out.println("Harmonic mean: " + moments.harmonicMean());
+			for (int i = 0; i < quantiles.length; i++) System.out.println("Quantile " + quantiles[i] + ": " + q[i]);
+			if (jsapResult.getBoolean("gini")) System.out.printf("Gini coefficient: %,f\n", gini);
+
+			if (histogram != null) histogram.store(jsapResult.getString("histogram"));
+		}
+	}
+}
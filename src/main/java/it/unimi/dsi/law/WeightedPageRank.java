@@ -0,0 +1,185 @@
+package it.unimi.dsi.law;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.FileLinesMutableStringIterable;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.law.graph.ValueLabel;
+import it.unimi.dsi.law.rank.PageRank;
+import it.unimi.dsi.law.rank.PageRankParallelGaussSeidel;
+import it.unimi.dsi.law.rank.SpectralRanking;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.labelling.ArcLabelledImmutableGraph;
+import it.unimi.dsi.webgraph.labelling.ArcLabelledNodeIterator;
+import it.unimi.dsi.webgraph.labelling.Label;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static it.unimi.dsi.law.graph.Parameters.addressesMapFile;
+import static it.unimi.dsi.law.graph.Parameters.ids;
+
+/** Computes PageRank on the address graph, possibly personalised on a set of addresses and possibly weighting
+ * the arcs by an attribute of their labels (e.g., the value or the multiplicity of a {@link ValueLabel}).
+ *
+ * <p>Without weights, the computation is delegated to {@link PageRankParallelGaussSeidel} on the transposed graph.
+ * With weights, a parallel power method runs on the transpose of the labelled graph, where each node gives its rank
+ * to its successors in proportion to the weight of the arcs. In both cases the rank of dangling nodes is
+ * redistributed according to the preference vector, and the result is stored as a binary list of doubles. */
+public class WeightedPageRank {
+	private static final Logger logger = LoggerFactory.getLogger(WeightedPageRank.class);
+	private static final ProgressLogger pl = new ProgressLogger(logger);
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(WeightedPageRank.class.getName(), "Compute the (weighted, personalised) PageRank of the address graph and store it as a binary list of doubles.",
+				new Parameter[]{
+						new FlaggedOption("alpha", JSAP.DOUBLE_PARSER, Double.toString(PageRank.DEFAULT_ALPHA), JSAP.NOT_REQUIRED, 'a', "alpha", "The damping factor."),
+						new FlaggedOption("threshold", JSAP.DOUBLE_PARSER, Double.toString(SpectralRanking.DEFAULT_THRESHOLD), JSAP.NOT_REQUIRED, 't', "threshold", "Stop when the L1 norm of the difference between two iterations is below this threshold."),
+						new FlaggedOption("maxIter", JSAP.INTEGER_PARSER, Integer.toString(SpectralRanking.DEFAULT_MAX_ITER), JSAP.NOT_REQUIRED, 'i', "max-iter", "The maximum number of iterations."),
+						new FlaggedOption("weight", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'w', "weight", "The label attribute weighting the arcs (e.g., '" + ValueLabel.VALUE + "' or '" + ValueLabel.MULTIPLICITY + "'); if given, the transposed graph must be labelled."),
+						new FlaggedOption("preference", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'p', "preference", "A file with one address per line on which the ranking is personalised (e.g., exchange or miner addresses); otherwise, the preference is uniform."),
+						new FlaggedOption("addressMap", JSAP.STRING_PARSER, addressesMapFile.toString(), JSAP.NOT_REQUIRED, 'm', "address-map", "The map from addresses to address ids, used to resolve the preference addresses."),
+						new FlaggedOption("ids", JSAP.STRING_PARSER, ids.toString(), JSAP.NOT_REQUIRED, 'I', "ids", "The address id of each node, used to resolve the preference addresses."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+						new UnflaggedOption("transposed", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The basename of the transposed graph (labelled, if arcs are weighted)."),
+						new UnflaggedOption("output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The file where the ranking will be stored as doubles."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final double alpha = jsapResult.getDouble("alpha");
+		final double threshold = jsapResult.getDouble("threshold");
+		final int maxIter = jsapResult.getInt("maxIter");
+		final int threads = jsapResult.getInt("threads");
+		final String transposed = jsapResult.getString("transposed");
+
+		final int n = ImmutableGraph.loadOffline(transposed).numNodes();
+		final double[] preference = jsapResult.contains("preference") ? preference(new File(jsapResult.getString("preference")), new File(jsapResult.getString("addressMap")), new File(jsapResult.getString("ids")), n) : null;
+
+		final double[] rank;
+		if (jsapResult.contains("weight")) {
+			rank = weighted(ArcLabelledImmutableGraph.load(transposed, pl), jsapResult.getString("weight"), preference, alpha, threshold, maxIter, threads);
+		} else {
+			final PageRankParallelGaussSeidel pr = new PageRankParallelGaussSeidel(ImmutableGraph.load(transposed, pl), threads, logger);
+			pr.alpha = alpha;
+			if (preference != null) {
+				pr.preference = DoubleArrayList.wrap(preference);
+				pr.stronglyPreferential = true;
+			}
+			pr.stepUntil(SpectralRanking.or(new SpectralRanking.NormStoppingCriterion(threshold), new SpectralRanking.IterationNumberStoppingCriterion(maxIter)));
+			rank = pr.rank;
+		}
+
+		BinIO.storeDoubles(rank, jsapResult.getString("output"));
+	}
+
+	/** Returns a preference vector uniform on the nodes of the addresses listed in the given file. */
+	private static double[] preference(File addresses, File addressMap, File ids, int n) throws IOException {
+		final List<byte[]> keys = new ObjectArrayList<>();
+		for (MutableString line : new FileLinesMutableStringIterable(addresses.toString())) {
+			if (line.trim().length() > 0) keys.add(line.toString().getBytes());
+		}
+
+		final GOV3Function<byte[]> map;
+		try {
+			map = (GOV3Function<byte[]>) BinIO.loadObject(addressMap);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+
+		final int[] nodes = Utils.addressesToNodes(keys, map, Utils.nodes(ids.toPath(), map.size64()));
+		final double[] preference = new double[n];
+		int found = 0;
+		for (int node : nodes) {
+			if (node != -1 && preference[node] == 0) {
+				preference[node] = 1;
+				found++;
+			}
+		}
+
+		logger.info(found + " distinct nodes found for " + keys.size() + " preference addresses");
+		if (found == 0) throw new IllegalArgumentException("None of the preference addresses is in the graph");
+
+		for (int i = 0; i < n; i++) preference[i] /= found;
+		return preference;
+	}
+
+	/** Runs the power method on a labelled transposed graph, where each arc is weighted by the given label attribute.
+	 *
+	 * @param preference the preference vector, or <code>null</code> for the uniform one. */
+	public static double[] weighted(ArcLabelledImmutableGraph transposed, String attribute, double[] preference, double alpha, double threshold, int maxIter, int threads) {
+		final int n = transposed.numNodes();
+		final double uniform = 1. / n;
+
+		// The total weight of the arcs leaving each node, that is, of the predecessors in the transpose
+		final double[] outWeight = new double[n];
+		pl.start("Computing out-weights");
+		pl.itemsName = "nodes";
+		pl.expectedUpdates = n;
+		final ArcLabelledNodeIterator nodeIterator = transposed.nodeIterator();
+		for (int i = 0; i < n; i++) {
+			nodeIterator.nextInt();
+			final int[] predecessors = nodeIterator.successorArray();
+			final Label[] labels = nodeIterator.labelArray();
+			for (int j = nodeIterator.outdegree(); j-- != 0;) outWeight[predecessors[j]] += labels[j].getDouble(attribute);
+			pl.lightUpdate();
+		}
+		pl.done();
+
+		double[] rank = new double[n], next = new double[n];
+		if (preference == null) Arrays.fill(rank, uniform);
+		else System.arraycopy(preference, 0, rank, 0, n);
+
+		for (int iteration = 0; iteration < maxIter; iteration++) {
+			double dangling = 0;
+			for (int i = 0; i < n; i++) if (outWeight[i] == 0) dangling += rank[i];
+
+			final double danglingRank = dangling;
+			final double[] current = rank, updated = next;
+			final List<Callable<Double>> tasks = Utils.ranges(n, threads, (from, to) -> {
+				final ArcLabelledNodeIterator it = transposed.copy().nodeIterator((int) from);
+				double delta = 0;
+
+				for (int node = (int) from; node < to; node++) {
+					it.nextInt();
+					final int[] predecessors = it.successorArray();
+					final Label[] labels = it.labelArray();
+
+					double sum = 0;
+					for (int j = it.outdegree(); j-- != 0;) {
+						final int p = predecessors[j];
+						// Predecessors whose arcs all weigh zero are dangling, and their rank is spread by danglingRank
+						if (outWeight[p] != 0) sum += current[p] * labels[j].getDouble(attribute) / outWeight[p];
+					}
+
+					final double v = preference == null ? uniform : preference[node];
+					updated[node] = alpha * (sum + danglingRank * v) + (1 - alpha) * v;
+					delta += Math.abs(updated[node] - current[node]);
+				}
+
+				return delta;
+			});
+
+			double delta = 0;
+			for (double d : Utils.invokeAll(tasks, threads)) delta += d;
+
+			next = rank;
+			rank = updated;
+			logger.info("Iteration " + (iteration + 1) + ": L1 norm of the difference " + delta);
+			if (delta < threshold) break;
+		}
+
+		return rank;
+	}
+}
@@ -1,95 +1,299 @@
 package it.unimi.dsi.law.graph;
 
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
 import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.law.Utils;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.mph.GOV3Function;
 import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.ImmutableGraph;
+import it.unimi.dsi.webgraph.NodeIterator;
 import it.unimi.dsi.webgraph.ScatteredArcsASCIIGraph;
+import it.unimi.dsi.webgraph.Transform;
+import it.unimi.dsi.webgraph.labelling.ArcLabelledImmutableSequentialGraph;
+import it.unimi.dsi.webgraph.labelling.ArcLabelledNodeIterator;
+import it.unimi.dsi.webgraph.labelling.BitStreamArcLabelledImmutableGraph;
+import it.unimi.dsi.webgraph.labelling.Label;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.NoSuchElementException;
-import java.util.Queue;
+import java.nio.file.StandardCopyOption;
 
 import static it.unimi.dsi.law.graph.Parameters.*;
 
-public class Blockchain2Webgraph implements Iterator<long[]>, Iterable<long[]> {
-	private final TransactionsDatabase transactionsDatabase;
-	private final GOV3Function<byte[]> transactionMap;
-	private final Queue<long[]> arcs = new LinkedList<>();
-	private final ProgressLogger progress;
-	private long transaction = 0;
-
-	public Blockchain2Webgraph(TransactionsDatabase transactionsDatabase, GOV3Function<byte[]> transactionMap, ProgressLogger progress) {
-		this.transactionsDatabase = transactionsDatabase;
-		this.transactionMap = transactionMap;
-		this.progress = progress == null ? Utils.getProgressLogger(Blockchain2Webgraph.class, "arcs") : progress;
-	}
+public class Blockchain2Webgraph {
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(Blockchain2Webgraph.class.getName(), "Build the address graph, linking every input address of a transaction to every output address.",
+				new Parameter[]{
+						new Switch("values", 'v', "values", "Also store a labelled graph over the address graph whose arcs carry the value transferred and the number of input-output pairs they come from."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final boolean values = jsapResult.getBoolean("values");
 
-	public static void main(String[] args) throws IOException {
 		graphDir.toFile().mkdir();
 		artifacts.toFile().mkdir();
 
 		GOV3Function<byte[]> addressMap = MappingTables.buildAddressesMap();
 		GOV3Function<byte[]> transactionMap = MappingTables.buildTransactionsMap();
 
-		TransactionsDatabase transactions = new TransactionsDatabase(addressMap, transactionMap);
+		TransactionsDatabase transactions = new TransactionsDatabase(addressMap, transactionMap, null, values);
 
 		ProgressLogger progress = Utils.getProgressLogger(Blockchain2Webgraph.class, "arcs");
-		Blockchain2Webgraph bw = new Blockchain2Webgraph(transactions, transactionMap, progress);
-		File tempDir = Files.createTempDirectory(resources, "bw_temp").toFile();
-		tempDir.deleteOnExit();
+		final long[] graphIds = storeGraph(transactions, transactionMap.size64(), addressMap.size64(), basename.toString(), progress);
+		BinIO.storeLongs(graphIds, ids.toFile());
 
-		ScatteredArcsASCIIGraph graph = new ScatteredArcsASCIIGraph(bw.iterator(), false, false, batchSize, tempDir, progress);
-
-		BVGraph.store(graph, basename.toString());
-		BinIO.storeLongs(graph.ids, ids.toFile());
+		if (values) {
+			storeValueLabels(transactions, transactionMap.size64(), addressMap.size64(), graphIds, basename.toString(), valuesBasename.toString(), progress);
+		}
 	}
 
-	@Override
-	public Iterator<long[]> iterator() {
-		return this;
-	}
+	/** Stores the address graph, numbering addresses in order of appearance like {@link ScatteredArcsASCIIGraph},
+	 * and returns the address of each node.
+	 *
+	 * <p>Arcs are sorted in batches sized by {@link MemoryPlan} with {@link Transform#processBatch}; batches are kept
+	 * in {@link Parameters#checkpointsDirectory}, and after a batch (at a transaction boundary) the numbering and the
+	 * list of batches are checkpointed if a checkpoint is due, so that a restarted build resumes from the last
+	 * checkpointed batch. */
+	public static long[] storeGraph(TransactionsDatabase transactions, long numTransactions, long numAddresses, String basename, ProgressLogger progress) throws IOException {
+		final File batchDir = checkpointsDirectory.resolve("arcs").toFile();
+		batchDir.mkdirs();
+		final Checkpoint checkpoint = new Checkpoint(checkpointsDirectory.resolve("arcs.checkpoint"));
+		final Object[] state = (Object[]) checkpoint.load();
 
-	@Override
-	public boolean hasNext() {
-		if (!this.arcs.isEmpty()) {
-			return true;
+		long start = 0, numArcs = 0;
+		int numNodes = 0;
+		final int[][] nodes;
+		final ObjectArrayList<File> batches = new ObjectArrayList<>();
+
+		if (state != null) {
+			start = (Long) state[0];
+			nodes = (int[][]) state[1];
+			numNodes = (Integer) state[2];
+			for (String b : (String[]) state[3]) batches.add(new File(batchDir, b));
+			numArcs = (Long) state[4];
+			progress.logger.info("Resuming from checkpoint: " + start + " transactions and " + batches.size() + " batches already processed");
+		} else {
+			nodes = IntBigArrays.newBigArray(numAddresses);
+			BigArrays.fill(nodes, -1);
 		}
 
-		while (this.transaction < this.transactionMap.size64()) {
-			long[] inputAddresses = this.transactionsDatabase.getInputAddresses(this.transaction);
-			long[] outputAddresses = this.transactionsDatabase.getOutputAddresses(this.transaction);
+		long pairs = 0;
+		for (long t = start; t < numTransactions; t++) pairs += (long) transactions.getInputAddresses(t).length * transactions.getOutputAddresses(t).length;
+		final int size = (int) Math.max(1, Math.min(MemoryPlan.batchSize("graph", MemoryPlan.BYTES_PER_ARC, 0, 1), pairs));
+		final int[] source = new int[size], target = new int[size];
+		int j = 0;
+
+		progress.expectedUpdates = -1;
+		progress.start("Sorting arcs in batches");
 
-			this.transaction++;
+		for (long t = start; t < numTransactions; t++) {
+			final long[] inputAddresses = transactions.getInputAddresses(t);
+			final long[] outputAddresses = transactions.getOutputAddresses(t);
+			if (inputAddresses.length == 0 || outputAddresses.length == 0) continue;
 
-			if (inputAddresses.length == 0 || outputAddresses.length == 0) {
-				continue;
+			if (j > 0 && j + (long) inputAddresses.length * outputAddresses.length > size) {
+				numArcs += flush(j, source, target, batchDir, batches);
+				j = 0;
+				if (checkpoint.due()) checkpoint.store(new Object[] { t, nodes, numNodes, batchNames(batches), numArcs });
 			}
 
 			for (long inputAddress : inputAddresses) {
+				int x = BigArrays.get(nodes, inputAddress);
+				if (x == -1) BigArrays.set(nodes, inputAddress, x = numNodes++);
+
 				for (long outputAddress : outputAddresses) {
-					this.arcs.add(new long[]{inputAddress, outputAddress});
+					int y = BigArrays.get(nodes, outputAddress);
+					if (y == -1) BigArrays.set(nodes, outputAddress, y = numNodes++);
+
+					// A single transaction larger than a batch is split, without checkpointing
+					if (j == size) {
+						numArcs += flush(j, source, target, batchDir, batches);
+						j = 0;
+					}
+					source[j] = x;
+					target[j++] = y;
+					progress.lightUpdate();
 				}
 			}
+		}
+
+		if (j > 0) numArcs += flush(j, source, target, batchDir, batches);
+		progress.done();
 
-			return true;
+		BVGraph.store(new Transform.BatchGraph(numNodes, numArcs, batches), basename, progress);
+
+		final long[] graphIds = new long[numNodes];
+		for (long a = 0; a < numAddresses; a++) {
+			final int x = BigArrays.get(nodes, a);
+			if (x != -1) graphIds[x] = a;
 		}
 
-		return false;
+		// Also deletes the batches sorted after the last checkpoint of an interrupted build
+		for (File b : batchDir.listFiles()) b.delete();
+		checkpoint.delete();
+		return graphIds;
+	}
+
+	/** Sorts a batch of arcs and moves it to a stable name, as {@link Transform#processBatch} deletes batches on exit. */
+	private static long flush(int n, int[] source, int[] target, File batchDir, ObjectArrayList<File> batches) throws IOException {
+		final long arcs = Transform.processBatch(n, source, target, batchDir, batches);
+		final File batch = new File(batchDir, "batch-" + batches.size());
+		Files.move(batches.top().toPath(), batch.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		batches.set(batches.size() - 1, batch);
+		return arcs;
 	}
 
-	@Override
-	public long[] next() {
-		if (!this.hasNext()) {
-			throw new NoSuchElementException();
+	private static String[] batchNames(ObjectArrayList<File> batches) {
+		final String[] names = new String[batches.size()];
+		for (int i = 0; i < names.length; i++) names[i] = batches.get(i).getName();
+		return names;
+	}
+
+	/** Stores a labelled graph over the given address graph whose arcs carry a {@link ValueLabel}.
+	 *
+	 * <p>Within a transaction, each input contributes to each output a share of its value proportional to the
+	 * value of the output, so that the fee is not attributed to any arc. Labels are as wide as the largest
+	 * aggregate value and multiplicity require.
+	 *
+	 * @param ids the address of each node of the graph, as returned by {@link ScatteredArcsASCIIGraph#ids}. */
+	public static void storeValueLabels(TransactionsDatabase transactions, long numTransactions, long numAddresses, long[] ids, String underlying, String labelled, ProgressLogger progress) throws IOException {
+		final ImmutableGraph graph = ImmutableGraph.load(underlying);
+		final int n = graph.numNodes();
+
+		final int[][] nodes = IntBigArrays.newBigArray(numAddresses);
+		BigArrays.fill(nodes, -1);
+		for (int node = 0; node < ids.length; node++) BigArrays.set(nodes, ids[node], node);
+
+		final long[] firstArc = new long[n + 1];
+		final NodeIterator nodeIterator = graph.nodeIterator();
+		for (int node = 0; node < n; node++) {
+			nodeIterator.nextInt();
+			firstArc[node + 1] = firstArc[node] + nodeIterator.outdegree();
 		}
 
-		this.progress.lightUpdate();
-		return this.arcs.remove();
+		final long[][] value = LongBigArrays.newBigArray(firstArc[n]);
+		final int[][] multiplicity = IntBigArrays.newBigArray(firstArc[n]);
+
+		progress.start("Aggregating values on arcs");
+		progress.itemsName = "transactions";
+		progress.expectedUpdates = numTransactions;
+
+		for (long transaction = 0; transaction < numTransactions; transaction++) {
+			final long[] inputAddresses = transactions.getInputAddresses(transaction);
+			final long[] outputAddresses = transactions.getOutputAddresses(transaction);
+			progress.lightUpdate();
+
+			if (inputAddresses.length == 0 || outputAddresses.length == 0) continue;
+
+			final long[] inputValues = transactions.getInputValues(transaction);
+			final long[] outputValues = transactions.getOutputValues(transaction);
+			long total = 0;
+			for (long v : outputValues) total += v;
+
+			for (int i = 0; i < inputAddresses.length; i++) {
+				final int source = BigArrays.get(nodes, inputAddresses[i]);
+				final int outdegree = graph.outdegree(source);
+				final int[] successors = graph.successorArray(source);
+
+				for (int o = 0; o < outputAddresses.length; o++) {
+					final long arc = firstArc[source] + IntArrays.binarySearch(successors, 0, outdegree, BigArrays.get(nodes, outputAddresses[o]));
+					final long share = total == 0 ? 0 : Math.round((double) inputValues[i] * outputValues[o] / total);
+					BigArrays.add(value, arc, share);
+					BigArrays.incr(multiplicity, arc);
+				}
+			}
+		}
+
+		progress.done();
+
+		long maxValue = 0, maxMultiplicity = 0;
+		for (long arc = 0; arc < firstArc[n]; arc++) {
+			maxValue = Math.max(maxValue, BigArrays.get(value, arc));
+			maxMultiplicity = Math.max(maxMultiplicity, BigArrays.get(multiplicity, arc));
+		}
+
+		final ValueLabel prototype = new ValueLabel(Math.max(1, 64 - Long.numberOfLeadingZeros(maxValue)), Math.max(1, 64 - Long.numberOfLeadingZeros(maxMultiplicity)));
+		progress.logger.info("Storing value labels as " + prototype.toSpec());
+		BitStreamArcLabelledImmutableGraph.store(new ArcLabelledImmutableSequentialGraph() {
+			@Override
+			public int numNodes() {
+				return n;
+			}
+
+			@Override
+			public long numArcs() {
+				return firstArc[n];
+			}
+
+			@Override
+			public Label prototype() {
+				return prototype;
+			}
+
+			@Override
+			public ArcLabelledNodeIterator nodeIterator() {
+				final NodeIterator nodeIterator = graph.nodeIterator();
+
+				return new ArcLabelledNodeIterator() {
+					private int node = -1;
+
+					@Override
+					public boolean hasNext() {
+						return nodeIterator.hasNext();
+					}
+
+					@Override
+					public int nextInt() {
+						return this.node = nodeIterator.nextInt();
+					}
+
+					@Override
+					public int outdegree() {
+						return nodeIterator.outdegree();
+					}
+
+					@Override
+					public LabelledArcIterator successors() {
+						final int[] successors = nodeIterator.successorArray();
+						final int outdegree = nodeIterator.outdegree();
+						final long first = firstArc[this.node];
+
+						return new LabelledArcIterator() {
+							private final ValueLabel label = (ValueLabel) prototype.copy();
+							private int i = 0;
+
+							@Override
+							public Label label() {
+								this.label.value = BigArrays.get(value, first + this.i - 1);
+								this.label.multiplicity = BigArrays.get(multiplicity, first + this.i - 1);
+								return this.label;
+							}
+
+							@Override
+							public int nextInt() {
+								return this.i < outdegree ? successors[this.i++] : -1;
+							}
+
+							@Override
+							public int skip(int k) {
+								final int skipped = Math.min(k, outdegree - this.i);
+								this.i += skipped;
+								return skipped;
+							}
+						};
+					}
+				};
+			}
+		}, labelled, new File(labelled).getAbsoluteFile().getParentFile().toPath().relativize(new File(underlying).getAbsoluteFile().toPath()).toString(), progress);
 	}
 }
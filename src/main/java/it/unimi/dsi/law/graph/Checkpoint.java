@@ -0,0 +1,58 @@
+package it.unimi.dsi.law.graph;
+
+import it.unimi.dsi.fastutil.io.BinIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static it.unimi.dsi.law.graph.Parameters.checkpointInterval;
+
+/** The state of a long computation, stored at safe points so that a restarted run can resume from the last one.
+ *
+ * <p>States are serialised to a temporary file that is then atomically moved in place, so a checkpoint is either
+ * complete or absent; they are stored at most once every {@link Parameters#checkpointInterval} milliseconds. */
+public class Checkpoint {
+	private final Path file;
+	private long last = System.currentTimeMillis();
+
+	public Checkpoint(Path file) {
+		this.file = file;
+		file.toAbsolutePath().getParent().toFile().mkdirs();
+	}
+
+	/** Returns the stored state, or <code>null</code> if there is none. */
+	public Object load() throws IOException {
+		if (!this.file.toFile().exists()) return null;
+
+		try {
+			return BinIO.loadObject(this.file.toFile());
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Returns whether a checkpoint is due. */
+	public boolean due() {
+		return System.currentTimeMillis() - this.last >= checkpointInterval;
+	}
+
+	/** Stores the given state, replacing the previous one. */
+	public void store(Object state) throws IOException {
+		final File temp = File.createTempFile(this.file.getFileName().toString(), ".tmp", this.file.toAbsolutePath().getParent().toFile());
+		try {
+			BinIO.storeObject(state, temp);
+			Files.move(temp.toPath(), this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		this.last = System.currentTimeMillis();
+	}
+
+	/** Deletes the stored state, once the computation is complete and its results are stored. */
+	public void delete() {
+		this.file.toFile().delete();
+	}
+}
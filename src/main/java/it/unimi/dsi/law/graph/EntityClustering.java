@@ -0,0 +1,149 @@
+package it.unimi.dsi.law.graph;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.law.UnionFind;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.ScatteredArcsASCIIGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Clusters addresses into entities with the common-input-ownership heuristic (all the inputs of a transaction
+ * belong to the same entity), and contracts the address graph to an entity graph where the entity of the inputs
+ * of each transaction is linked to the entity of each output.
+ *
+ * <p>The entity of each address id is stored in {@link Parameters#entitiesFile} as ints, entities being numbered
+ * in the order of their smallest address id; the entity graph is stored in {@link Parameters#entitiesBasename},
+ * with the entity of each node in {@link Parameters#entityIds} as longs. */
+public class EntityClustering implements Iterator<long[]>, Iterable<long[]> {
+
+	private final TransactionsDatabase transactionsDatabase;
+	private final int[] entity;
+	private final long numTransactions;
+	private final ProgressLogger progress;
+	private final LongArrayList outputs = new LongArrayList();
+	private long source;
+	private long transaction = 0;
+
+	public EntityClustering(TransactionsDatabase transactionsDatabase, int[] entity, long numTransactions, ProgressLogger progress) {
+		this.transactionsDatabase = transactionsDatabase;
+		this.entity = entity;
+		this.numTransactions = numTransactions;
+		this.progress = progress == null ? Utils.getProgressLogger(EntityClustering.class, "arcs") : progress;
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(EntityClustering.class.getName(), "Cluster addresses into entities with the common-input-ownership heuristic and build the entity graph.",
+				new Parameter[]{
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		graphDir.toFile().mkdir();
+		artifacts.toFile().mkdir();
+
+		GOV3Function<byte[]> addressMap = MappingTables.buildAddressesMap();
+		GOV3Function<byte[]> transactionMap = MappingTables.buildTransactionsMap();
+
+		TransactionsDatabase transactions = new TransactionsDatabase(addressMap, transactionMap);
+
+		final int[] entity = cluster(transactions, Math.toIntExact(addressMap.size64()), transactionMap.size64(), jsapResult.getInt("threads"));
+		BinIO.storeInts(entity, entitiesFile.toFile());
+
+		ProgressLogger progress = Utils.getProgressLogger(EntityClustering.class, "arcs");
+		EntityClustering ec = new EntityClustering(transactions, entity, transactionMap.size64(), progress);
+		File tempDir = Files.createTempDirectory(resources, "ec_temp").toFile();
+		tempDir.deleteOnExit();
+
+		int numEntities = 0;
+		for (int e : entity) numEntities = Math.max(numEntities, e + 1);
+		final int size = MemoryPlan.batchSize("entities", MemoryPlan.BYTES_PER_ARC, (long) numEntities * MemoryPlan.BYTES_PER_MAPPED_NODE, 1);
+
+		ScatteredArcsASCIIGraph graph = new ScatteredArcsASCIIGraph(ec.iterator(), false, false, size, tempDir, progress);
+
+		BVGraph.store(graph, entitiesBasename.toString());
+		BinIO.storeLongs(graph.ids, entityIds.toFile());
+	}
+
+	/** Joins the inputs of each transaction in parallel and returns the entity of each address. */
+	public static int[] cluster(TransactionsDatabase transactions, int numAddresses, long numTransactions, int threads) {
+		final UnionFind unionFind = new UnionFind(numAddresses);
+		final ProgressLogger progress = Utils.getProgressLogger(EntityClustering.class, "transactions");
+		progress.expectedUpdates = numTransactions;
+		progress.start("Joining the inputs of transactions");
+
+		Utils.invokeAll(Utils.ranges(numTransactions, threads, (from, to) -> {
+			for (long t = from; t < to; t++) {
+				final long[] inputs = transactions.getInputAddresses(t);
+				for (int i = 1; i < inputs.length; i++) unionFind.union((int) inputs[0], (int) inputs[i]);
+			}
+
+			synchronized (progress) { progress.update(to - from); }
+			return null;
+		}), threads);
+		progress.done();
+
+		final int[] entity = unionFind.sets();
+		int numEntities = 0;
+		for (int e : entity) numEntities = Math.max(numEntities, e + 1);
+		progress.logger.info(numAddresses + " addresses clustered into " + numEntities + " entities");
+
+		return entity;
+	}
+
+	@Override
+	public Iterator<long[]> iterator() {
+		return this;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!this.outputs.isEmpty()) {
+			return true;
+		}
+
+		while (this.transaction < this.numTransactions) {
+			long[] inputAddresses = this.transactionsDatabase.getInputAddresses(this.transaction);
+			long[] outputAddresses = this.transactionsDatabase.getOutputAddresses(this.transaction);
+
+			this.transaction++;
+
+			if (inputAddresses.length == 0 || outputAddresses.length == 0) {
+				continue;
+			}
+
+			// All inputs belong to the same entity
+			this.source = this.entity[(int) inputAddresses[0]];
+			for (long outputAddress : outputAddresses) {
+				this.outputs.add(this.entity[(int) outputAddress]);
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public long[] next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		this.progress.lightUpdate();
+		return new long[]{this.source, this.outputs.popLong()};
+	}
+}
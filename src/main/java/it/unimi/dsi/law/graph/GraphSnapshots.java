@@ -0,0 +1,173 @@
+package it.unimi.dsi.law.graph;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.Int2ObjectAVLTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import it.unimi.dsi.webgraph.BVGraph;
+import it.unimi.dsi.webgraph.Transform;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Builds one snapshot of the address graph per time window, in a single pass over the transactions.
+ *
+ * <p>All snapshots share the numbering of the nodes of the whole address graph (so they must be built after
+ * {@link Blockchain2Webgraph}), and addresses that are not active in a window are isolated nodes. The arcs of
+ * each window are spilled to a temporary file during the pass; windows are then sorted and compressed in parallel. */
+public class GraphSnapshots {
+	/** The number of blocks between two halvings of the block reward. */
+	public static final int HALVING_INTERVAL = 210_000;
+
+	public enum Window {
+		MONTHLY, YEARLY, HALVING;
+
+		/** Returns an increasing key identifying the window of a transaction. */
+		public int key(long time, int block) {
+			switch (this) {
+				case MONTHLY:
+					final LocalDate date = LocalDate.ofEpochDay(time / 86400);
+					return date.getYear() * 12 + date.getMonthValue() - 1;
+				case YEARLY: return LocalDate.ofEpochDay(time / 86400).getYear();
+				default: return block / HALVING_INTERVAL;
+			}
+		}
+
+		public String label(int key) {
+			switch (this) {
+				case MONTHLY: return String.format("%04d-%02d", key / 12, key % 12 + 1);
+				case YEARLY: return Integer.toString(key);
+				default: return "epoch" + key;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(GraphSnapshots.class.getName(), "Build a snapshot of the address graph for each time window in " + snapshotsDirectory + ", sharing the numbering of the whole graph.",
+				new Parameter[]{
+						new FlaggedOption("window", JSAP.STRING_PARSER, "monthly", JSAP.NOT_REQUIRED, 'w', "window", "The width of the windows: monthly, yearly or halving (the epochs between two halvings of the block reward)."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of windows compressed in parallel."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final Window window = Window.valueOf(jsapResult.getString("window").toUpperCase());
+		final int threads = jsapResult.getInt("threads");
+
+		snapshotsDirectory.toFile().mkdirs();
+
+		GOV3Function<byte[]> addressMap = MappingTables.buildAddressesMap();
+		GOV3Function<byte[]> transactionMap = MappingTables.buildTransactionsMap();
+
+		TransactionsDatabase transactions = new TransactionsDatabase(addressMap, transactionMap);
+		transactions.loadTimestamps();
+
+		// The node of each address in the whole graph
+		final int[][] nodes = IntBigArrays.newBigArray(addressMap.size64());
+		BigArrays.fill(nodes, -1);
+		int n = 0;
+		for (LongIterator it = BinIO.asLongIterator(ids.toFile()); it.hasNext(); n++) BigArrays.set(nodes, it.nextLong(), n);
+
+		File tempDir = Files.createTempDirectory(resources, "gs_temp").toFile();
+		tempDir.deleteOnExit();
+
+		final Int2ObjectMap<File> arcs = spill(transactions, transactionMap.size64(), nodes, window, tempDir);
+
+		final int numNodes = n;
+		final int workers = MemoryPlan.threads("snapshots", MemoryPlan.BYTES_PER_ARC, 0, threads);
+		final int batch = MemoryPlan.batchSize("snapshots", MemoryPlan.BYTES_PER_ARC, 0, workers);
+		final List<Callable<Void>> tasks = new ArrayList<>();
+		for (Int2ObjectMap.Entry<File> e : arcs.int2ObjectEntrySet()) {
+			final String basename = snapshotsDirectory.resolve("bitcoin-" + window.label(e.getIntKey())).toString();
+			tasks.add(() -> {
+				store(e.getValue(), numNodes, batch, tempDir, basename);
+				return null;
+			});
+		}
+
+		Utils.invokeAll(tasks, workers);
+		tempDir.delete();
+	}
+
+	/** Scans the transactions once, appending the arcs of each window, as pairs of ints, to a temporary file of its own. */
+	private static Int2ObjectMap<File> spill(TransactionsDatabase transactions, long numTransactions, int[][] nodes, Window window, File tempDir) throws IOException {
+		final Int2ObjectMap<File> files = new Int2ObjectAVLTreeMap<>();
+		final Int2ObjectMap<DataOutputStream> streams = new Int2ObjectAVLTreeMap<>();
+		final ProgressLogger progress = Utils.getProgressLogger(GraphSnapshots.class, "transactions");
+		progress.expectedUpdates = numTransactions;
+		progress.start("Splitting arcs by " + window.name().toLowerCase() + " windows");
+
+		try {
+			for (long t = 0; t < numTransactions; t++) {
+				progress.lightUpdate();
+				final long[] inputAddresses = transactions.getInputAddresses(t);
+				final long[] outputAddresses = transactions.getOutputAddresses(t);
+				if (inputAddresses.length == 0 || outputAddresses.length == 0) continue;
+
+				final int key = window.key(transactions.getTime(t), transactions.getBlock(t));
+				DataOutputStream out = streams.get(key);
+				if (out == null) {
+					final File file = File.createTempFile("window", ".arcs", tempDir);
+					file.deleteOnExit();
+					files.put(key, file);
+					streams.put(key, out = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(file))));
+				}
+
+				for (long inputAddress : inputAddresses) {
+					final int source = BigArrays.get(nodes, inputAddress);
+					for (long outputAddress : outputAddresses) {
+						out.writeInt(source);
+						out.writeInt(BigArrays.get(nodes, outputAddress));
+					}
+				}
+			}
+		} finally {
+			for (DataOutputStream out : streams.values()) out.close();
+		}
+
+		progress.done();
+		return files;
+	}
+
+	/** Sorts the arcs of a window in batches and compresses them as a graph with the given number of nodes. */
+	private static void store(File arcs, int numNodes, int batch, File tempDir, String basename) throws IOException {
+		final long numPairs = arcs.length() / (2 * Integer.BYTES);
+		final int[] source = new int[(int) Math.min(batch, numPairs)];
+		final int[] target = new int[source.length];
+		final ObjectArrayList<File> batches = new ObjectArrayList<>();
+		long numArcs = 0;
+
+		try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new FileInputStream(arcs)))) {
+			for (long read = 0; read < numPairs;) {
+				final int length = (int) Math.min(source.length, numPairs - read);
+				for (int i = 0; i < length; i++) {
+					source[i] = in.readInt();
+					target[i] = in.readInt();
+				}
+				numArcs += Transform.processBatch(length, source, target, tempDir, batches);
+				read += length;
+			}
+		}
+
+		arcs.delete();
+		BVGraph.store(new Transform.BatchGraph(numNodes, numArcs, batches), basename);
+		for (File b : batches) b.delete();
+	}
+}
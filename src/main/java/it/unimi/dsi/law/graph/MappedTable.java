@@ -0,0 +1,100 @@
+package it.unimi.dsi.law.graph;
+
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.io.InputBitStream;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.sux4j.util.EliasFanoMonotoneLongBigList;
+import it.unimi.dsi.util.ByteBufferLongBigList;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongFunction;
+
+/** A table of lists of longs stored flat on disk, so that it can be memory-mapped instead of deserialised:
+ * the lists are concatenated as big-endian longs in <code>.longs</code>, and the Elias&ndash;Fano list of their
+ * starting positions is serialised in <code>.offsets</code>.
+ *
+ * <p>Tables are not thread safe, but any number of {@link #copy() copies} can be used concurrently. */
+public class MappedTable {
+	public static final String OFFSETS_EXTENSION = ".offsets";
+	public static final String LONGS_EXTENSION = ".longs";
+
+	private final EliasFanoMonotoneLongBigList offsets;
+	private final ByteBufferLongBigList longs;
+
+	private MappedTable(EliasFanoMonotoneLongBigList offsets, ByteBufferLongBigList longs) {
+		this.offsets = offsets;
+		this.longs = longs;
+	}
+
+	public static boolean exists(String basename) {
+		return new File(basename + OFFSETS_EXTENSION).exists() && new File(basename + LONGS_EXTENSION).exists();
+	}
+
+	public static MappedTable load(String basename) throws IOException {
+		final EliasFanoMonotoneLongBigList offsets;
+		try {
+			offsets = (EliasFanoMonotoneLongBigList) BinIO.loadObject(basename + OFFSETS_EXTENSION);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+
+		try (FileChannel channel = FileChannel.open(Paths.get(basename + LONGS_EXTENSION), StandardOpenOption.READ)) {
+			return new MappedTable(offsets, ByteBufferLongBigList.map(channel));
+		}
+	}
+
+	/** Stores the given lists, which are retrieved twice. */
+	public static void store(long size, LongFunction<long[]> lists, String basename) throws IOException {
+		final File lengths = File.createTempFile("mappedtable", ".lengths", new File(basename).getAbsoluteFile().getParentFile());
+		lengths.deleteOnExit();
+
+		long total = 0;
+		try (DataOutputStream out = new DataOutputStream(new FastBufferedOutputStream(Files.newOutputStream(Paths.get(basename + LONGS_EXTENSION))));
+			 OutputBitStream obs = new OutputBitStream(lengths)) {
+			for (long i = 0; i < size; i++) {
+				final long[] list = lists.apply(i);
+				for (long v : list) out.writeLong(v);
+				obs.writeGamma(list.length);
+				total += list.length;
+			}
+		}
+
+		final LongIterator prefixSums = Utils.prefixSums(lengths, size);
+		BinIO.storeObject(new EliasFanoMonotoneLongBigList(size + 1, total + 1, prefixSums), basename + OFFSETS_EXTENSION);
+		lengths.delete();
+	}
+
+	/** Returns the number of lists. */
+	public long size64() {
+		return this.offsets.size64() - 1;
+	}
+
+	public int length(long i) {
+		return (int) this.offsets.getDelta(i);
+	}
+
+	/** Returns the element of index <code>j</code> of the list of index <code>i</code>. */
+	public long getLong(long i, int j) {
+		return this.longs.getLong(this.offsets.getLong(i) + j);
+	}
+
+	public long[] get(long i) {
+		final long from = this.offsets.getLong(i);
+		final long[] list = new long[(int) (this.offsets.getLong(i + 1) - from)];
+		for (int j = 0; j < list.length; j++) list[j] = this.longs.getLong(from + j);
+		return list;
+	}
+
+	public MappedTable copy() {
+		return new MappedTable(this.offsets, this.longs.copy());
+	}
+}
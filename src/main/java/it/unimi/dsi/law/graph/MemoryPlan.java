@@ -0,0 +1,139 @@
+package it.unimi.dsi.law.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+import static it.unimi.dsi.law.graph.Parameters.batchSize;
+
+/** Chooses batch sizes and parallelism from the memory available when a stage starts.
+ *
+ * <p>The heap budget is the memory the heap can still grow into after a collection, capped by the physical memory,
+ * so that a maximum heap larger than the machine does not lead to swapping; a fraction {@link #HEADROOM} of it is
+ * used. The off-heap budget (the limit on direct buffers, and the physical memory left outside the heap to the page
+ * cache for memory-mapped files) is measured and logged with the plan. Every plan is logged on a single line together with the
+ * settings reproducing it, which can be copied in the configuration file (see {@link Parameters}); if the
+ * configuration fixes <code>batchSize</code>, it is used as is. */
+public class MemoryPlan {
+	private static final Logger logger = LoggerFactory.getLogger(MemoryPlan.class);
+
+	/** The fraction of the budget a plan uses, leaving room to the young generation, to the fragmentation caused by
+	 * huge arrays (which need contiguous regions) and to estimates that are off. */
+	public static final double HEADROOM = 0.6;
+	public static final int MIN_BATCH_SIZE = 1 << 20;
+	public static final int MAX_BATCH_SIZE = Integer.MAX_VALUE - 8;
+
+	/** The cost of an arc in a batch: its source and target. */
+	public static final int BYTES_PER_ARC = 2 * Integer.BYTES;
+	/** The cost of a row of a transaction table (an address, and a value if values are loaded). */
+	public static final int BYTES_PER_ROW = Long.BYTES;
+	/** The cost of a transaction in a transaction table, however many rows it has: the header of its array (which,
+	 * holding longs, needs no padding) and its slot in the outer array, with uncompressed references. */
+	public static final int BYTES_PER_TRANSACTION = 16 + Long.BYTES;
+	/** The cost of a node numbered by a hash map, as in {@link it.unimi.dsi.webgraph.ScatteredArcsASCIIGraph}: a key,
+	 * a value and the free slots at the default load factor, plus its id. */
+	public static final int BYTES_PER_MAPPED_NODE = (int) ((Long.BYTES + Integer.BYTES) / 0.75) + Long.BYTES;
+
+	/** Returns the bytes of heap available to a stage. */
+	public static long heap() {
+		System.gc();
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		final long max = heap.getMax() == -1 ? Runtime.getRuntime().maxMemory() : heap.getMax();
+		return Math.max(0, Math.min(max, physical()) - heap.getUsed());
+	}
+
+	/** Returns the bytes of memory available outside the heap, that is, the value of
+	 * <code>-XX:MaxDirectMemorySize</code> (by default, the maximum heap) capped by the physical memory not reserved
+	 * to the heap. */
+	public static long offHeap() {
+		long max = Runtime.getRuntime().maxMemory();
+		for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (arg.startsWith("-XX:MaxDirectMemorySize=")) max = parseSize(arg.substring(arg.indexOf('=') + 1));
+		}
+		return Math.max(0, Math.min(max, physical() - Runtime.getRuntime().maxMemory()));
+	}
+
+	/** Returns the physical memory of the machine, or {@link Long#MAX_VALUE} if it cannot be measured. */
+	@SuppressWarnings("deprecation")
+	public static long physical() {
+		final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		// getTotalMemorySize(), which replaces the deprecated method, requires Java 14, and the build targets Java 9
+		if (os instanceof com.sun.management.OperatingSystemMXBean) return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+		return Long.MAX_VALUE;
+	}
+
+	/** Returns the number of arcs of the batches of a stage in which each of the given workers sorts its own batch.
+	 *
+	 * @param bytesPerArc the cost of an arc in a batch.
+	 * @param reserved the bytes the stage will still allocate besides the batches. */
+	public static int batchSize(String stage, int bytesPerArc, long reserved, int workers) {
+		if (batchSize > 0) {
+			final int size = Math.max(1, batchSize / workers);
+			logger.info("Plan for " + stage + ": configured batch size; batchSize=" + size + " threads=" + workers);
+			return size;
+		}
+
+		final long heap = heap();
+		final long budget = (long) (HEADROOM * (heap - reserved));
+		final int size = (int) Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, budget / bytesPerArc / workers));
+
+		logger.info("Plan for " + stage + ": " + bytes(heap) + " heap and " + bytes(offHeap()) + " off-heap available, " + bytes(reserved) + " reserved, " +
+				bytesPerArc + " bytes per arc; batchSize=" + (long) size * workers + " threads=" + workers);
+		if ((long) size * bytesPerArc * workers > heap - reserved) logger.warn("Plan for " + stage + " exceeds the available heap even with the minimum batch size");
+		return size;
+	}
+
+	/** Returns the number of workers, at most the given one, that can each sort batches of at least
+	 * {@link #MIN_BATCH_SIZE} arcs in the available heap. */
+	public static int threads(String stage, int bytesPerArc, long reserved, int threads) {
+		if (batchSize > 0) return threads;
+		final long budget = (long) (HEADROOM * (heap() - reserved));
+		final int result = (int) Math.max(1, Math.min(threads, budget / ((long) MIN_BATCH_SIZE * bytesPerArc)));
+		if (result < threads) logger.info("Plan for " + stage + ": " + result + " of " + threads + " threads fit in the available heap");
+		return result;
+	}
+
+	/** Estimates the memory a transaction table built from the given files will take, once the array of each
+	 * transaction is allocated, and logs it together with the heap available; the number of rows is estimated
+	 * from the size of the files and the average length of the rows at the start of the first one.
+	 *
+	 * @param transactions the number of transactions, each of which has an array even if it has no rows.
+	 * @param tables the number of tables aligned with the rows (two, if values are loaded). */
+	public static void table(String stage, File[] sources, long transactions, int tables) throws IOException {
+		long bytes = 0;
+		for (File f : sources) bytes += f.length();
+		final long rows = sources.length == 0 ? 0 : bytes / averageRowLength(sources[0]);
+		final long estimate = tables * (rows * BYTES_PER_ROW + transactions * BYTES_PER_TRANSACTION);
+		final long heap = heap();
+
+		logger.info("Plan for " + stage + ": about " + rows + " rows of " + transactions + " transactions in " + sources.length + " files, estimated " +
+				bytes(estimate) + " of " + bytes(heap) + " heap and " + bytes(offHeap()) + " off-heap available");
+		if (estimate > heap) logger.warn("The " + stage + " table will likely not fit in the heap; increase -Xmx");
+	}
+
+	private static long averageRowLength(File file) throws IOException {
+		final byte[] buffer = new byte[1 << 20];
+		int length = 0, rows = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			for (int r; length < buffer.length && (r = in.read(buffer, length, buffer.length - length)) != -1; ) length += r;
+		}
+		for (int i = 0; i < length; i++) if (buffer[i] == '\n') rows++;
+		return Math.max(1, rows == 0 ? length : length / rows);
+	}
+
+	private static long parseSize(String size) {
+		final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+		final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : unit == 't' ? 40 : 0;
+		return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+	}
+
+	private static String bytes(long bytes) {
+		return String.format("%.1fGiB", bytes / (double) (1L << 30));
+	}
+}
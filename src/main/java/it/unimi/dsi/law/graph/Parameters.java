@@ -1,16 +1,43 @@
 package it.unimi.dsi.law.graph;
 
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.PropertiesConfiguration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.configuration2.io.FileHandler;
+
 import java.io.File;
 import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
 
+/** The paths and settings shared by all tools.
+ *
+ * <p>The values below are defaults: if the system property {@value #CONFIGURATION_PROPERTY} names a properties file,
+ * the keys it contains (<code>resources</code>, <code>artifacts</code>, <code>graph</code>, <code>threads</code>,
+ * <code>batchSize</code>, <code>maxErrorRate</code>, <code>checkpointInterval</code> in minutes and
+ * <code>logInterval</code> in minutes) override them. The property must be set before this class is first used. */
 public class Parameters {
+	public final static String CONFIGURATION_PROPERTY = "bitcoin2webgraph.config";
+	private final static Configuration configuration = loadConfiguration();
+
+	private static Configuration loadConfiguration() {
+		final String file = System.getProperty(CONFIGURATION_PROPERTY);
+		if (file == null) return new BaseConfiguration();
+
+		final PropertiesConfiguration configuration = new PropertiesConfiguration();
+		try {
+			new FileHandler(configuration).load(new File(file));
+			return configuration;
+		} catch (ConfigurationException e) {
+			throw new IllegalArgumentException("Cannot read configuration " + file, e);
+		}
+	}
 
 	// Paths
 
-	public final static Path resources = new File("/mnt/big/analysis/lfoscari/bitcoin").toPath();
-	public final static Path artifacts = resources.resolve("artifacts");
-	public final static Path graphDir = resources.resolve("graph-labelled");
+	public final static Path resources = new File(configuration.getString("resources", "/mnt/big/analysis/lfoscari/bitcoin")).toPath();
+	public final static Path artifacts = configuration.containsKey("artifacts") ? new File(configuration.getString("artifacts")).toPath() : resources.resolve("artifacts");
+	public final static Path graphDir = configuration.containsKey("graph") ? new File(configuration.getString("graph")).toPath() : resources.resolve("graph-labelled");
 
 	public final static Path addressesFile = artifacts.resolve("addresses.tsv");
 	public final static Path addressesMapFile = artifacts.resolve("address.map");
@@ -19,15 +46,49 @@ public class Parameters {
 	public final static Path transactionsFile = artifacts.resolve("transactions.tsv");
 	public final static Path transactionsMapFile = artifacts.resolve("transaction.map");
 	public final static Path transactionsDirectory = resources.resolve("transactions");
+	public final static Path transactionBlocksFile = artifacts.resolve("transactions.blocks");
+	public final static Path transactionTimesFile = artifacts.resolve("transactions.times");
 
 	public final static Path basename = graphDir.resolve("bitcoin-underlying");
 	public final static Path ids = graphDir.resolve("bitcoin-underlying.ids");
+	public final static Path addressNodes = graphDir.resolve("bitcoin-underlying.ids.inverse");
+	public final static Path transposedBasename = graphDir.resolve("bitcoin-underlying-t");
+	public final static Path valuesBasename = graphDir.resolve("bitcoin-values");
+
+	public final static Path entitiesFile = artifacts.resolve("address.entities");
+	public final static Path entitiesBasename = graphDir.resolve("bitcoin-entities");
+	public final static Path entityIds = graphDir.resolve("bitcoin-entities.ids");
+
+	public final static Path snapshotsDirectory = graphDir.resolve("snapshots");
 
 	public final static Path inputsDirectory = resources.resolve("inputs");
 	public final static Path transactionInputsFile = artifacts.resolve("transactions.inputs.table");
+	public final static Path transactionInputValuesFile = artifacts.resolve("transactions.inputs.values.table");
 
 	public final static Path outputsDirectory = resources.resolve("outputs");
 	public final static Path transactionOutputsFile = artifacts.resolve("transactions.outputs.table");
+	public final static Path transactionOutputValuesFile = artifacts.resolve("transactions.outputs.values.table");
+
+	// Rows rejected while computing the transaction tables (see Quarantine)
+
+	public final static Path inputsQuarantineFile = artifacts.resolve("quarantine.inputs.tsv");
+	public final static Path outputsQuarantineFile = artifacts.resolve("quarantine.outputs.tsv");
+	public final static double maxErrorRate = configuration.getDouble("maxErrorRate", 0.001);
+
+	// States of long computations, to resume them after a crash (see Checkpoint)
+
+	public final static Path checkpointsDirectory = artifacts.resolve("checkpoints");
+	public final static long checkpointInterval = TimeUnit.MINUTES.toMillis(configuration.getLong("checkpointInterval", 30));
+
+	// Flat tables that can be memory-mapped (see MappedTable)
+
+	public final static Path transactionInputsTable = artifacts.resolve("transactions.inputs");
+	public final static Path transactionOutputsTable = artifacts.resolve("transactions.outputs");
+	public final static Path addressTransactionsTable = artifacts.resolve("addresses.transactions");
+
+	// The transactions of each address as an input and as an output, sorted by time and tagged with it (see TaintAnalysis)
+	public final static Path addressInputsByTimeTable = artifacts.resolve("addresses.inputs.bytime");
+	public final static Path addressOutputsByTimeTable = artifacts.resolve("addresses.outputs.bytime");
 
 	// Bitcoin Blockchair schema for both inputs and outputs
 
@@ -56,9 +117,46 @@ public class Parameters {
 				CDD = 20;
 	}
 
+	// Bitcoin Blockchair schema for transactions
+
+	public static class TransactionColumn {
+		public static final int
+				BLOCK_ID = 0,
+				HASH = 1,
+				TIME = 2,
+				SIZE = 3,
+				WEIGHT = 4,
+				VERSION = 5,
+				LOCK_TIME = 6,
+				IS_COINBASE = 7,
+				HAS_WITNESS = 8,
+				INPUT_COUNT = 9,
+				OUTPUT_COUNT = 10,
+				INPUT_TOTAL = 11,
+				INPUT_TOTAL_USD = 12,
+				OUTPUT_TOTAL = 13,
+				OUTPUT_TOTAL_USD = 14,
+				FEE = 15,
+				FEE_USD = 16,
+				FEE_PER_KB = 17,
+				FEE_PER_KB_USD = 18,
+				FEE_PER_KWU = 19,
+				FEE_PER_KWU_USD = 20,
+				CDD_TOTAL = 21;
+	}
+
+	// Fingerprints of the artifacts of each stage of the pipeline (see Pipeline)
+
+	public final static Path pipelineManifest = artifacts.resolve("pipeline.properties");
+
 	// Logging
 
-	public final static long logInterval = 1;
+	public final static long logInterval = configuration.getLong("logInterval", 1);
 	public final static TimeUnit logTimeUnit = TimeUnit.MINUTES;
-	public final static int batchSize = 500_000_000;
+
+	// Resources
+
+	public final static int threads = configuration.getInt("threads", Runtime.getRuntime().availableProcessors());
+	/** The number of arcs sorted at a time, or 0 to choose it from the available memory (see MemoryPlan). */
+	public final static int batchSize = configuration.getInt("batchSize", 0);
 }
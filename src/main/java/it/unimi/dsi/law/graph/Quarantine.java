@@ -0,0 +1,131 @@
+package it.unimi.dsi.law.graph;
+
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Collects the rows rejected during ingestion, so that a few malformed rows do not stop a build.
+ *
+ * <p>Rejected rows are appended to a side file, one per line, preceded by a reason code and the name of their file
+ * and separated from them by a tab. Errors are counted per file: when a file is over, its error rate is checked
+ * against a threshold, and if it is exceeded the build is stopped, as the file (or the maps) must be broken.
+ *
+ * <p>The side file is truncated when the quarantine is created, so that it never contains the rows of an interrupted
+ * run: a computation starting from scratch truncates it to zero, and one resuming from a checkpoint truncates it to
+ * the {@linkplain #length() length} it had when the checkpoint was stored. */
+public class Quarantine implements Closeable {
+	public enum Reason {
+		/** The row has too few columns. */
+		MALFORMED_ROW,
+		/** The address of the row is not in the address map. */
+		UNKNOWN_ADDRESS,
+		/** The transaction of the row is not in the transaction map. */
+		UNKNOWN_TRANSACTION,
+		/** The value of the row is not a non-negative integer. */
+		INVALID_VALUE
+	}
+
+	private final FileChannel channel;
+	private final PrintStream out;
+	private final double maxErrorRate;
+	private final Logger logger;
+	private final Object2LongMap<String> errorsPerFile = new Object2LongLinkedOpenHashMap<>();
+	private String file;
+	private long rows, errors, totalRows, totalErrors;
+
+	/** Creates a quarantine appending to the given file, after truncating it to the given length.
+	 *
+	 * @param length the length to which the file is truncated: zero, or the {@linkplain #length() length} stored
+	 * with the checkpoint from which the computation resumes.
+	 * @param maxErrorRate the maximum fraction of rejected rows in a file. */
+	public Quarantine(Path quarantine, long length, double maxErrorRate, Logger logger) throws IOException {
+		this.channel = FileChannel.open(quarantine, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (this.channel.size() < length) {
+			this.channel.close();
+			throw new IOException("Quarantine " + quarantine + " is shorter than its checkpointed length " + length);
+		}
+		this.channel.truncate(length);
+		this.channel.position(length);
+		this.out = new PrintStream(new FastBufferedOutputStream(Channels.newOutputStream(this.channel)));
+		this.maxErrorRate = maxErrorRate;
+		this.logger = logger;
+	}
+
+	/** Starts counting the rows of a new file, closing the current one. */
+	public void startFile(File source) {
+		this.endFile();
+		this.file = source.getName();
+		this.rows = this.errors = 0;
+	}
+
+	public void accept() {
+		this.rows++;
+	}
+
+	public void reject(Reason reason, CharSequence row) {
+		this.rows++;
+		this.errors++;
+		this.out.print(reason);
+		this.out.print('\t');
+		this.out.print(this.file);
+		this.out.print('\t');
+		this.out.println(row);
+	}
+
+	/** Ends the current file, checking its error rate, so that a file over the threshold is never recorded as
+	 * processed (or checkpointed); does nothing if there is no current file, as after a previous call. */
+	public void endFile() {
+		if (this.file == null) return;
+		final String file = this.file;
+		this.file = null;
+
+		this.totalRows += this.rows;
+		this.totalErrors += this.errors;
+
+		if (this.errors > 0) {
+			this.errorsPerFile.put(file, this.errors);
+			this.logger.warn(this.errors + " rows of " + this.rows + " rejected in " + file);
+			if (this.errors > this.maxErrorRate * this.rows) {
+				this.out.flush();
+				throw new IllegalStateException("Error rate " + (double) this.errors / this.rows + " in " + file + " exceeds " + this.maxErrorRate);
+			}
+		}
+	}
+
+	/** Returns the number of rows accepted or rejected so far. */
+	public long rows() {
+		return this.totalRows + (this.file == null ? 0 : this.rows);
+	}
+
+	/** Returns the length of the file, including the rows rejected so far, to be stored with a checkpoint. */
+	public long length() throws IOException {
+		this.out.flush();
+		return this.channel.position();
+	}
+
+	/** Returns the number of rejected rows of each file with errors, in order of processing. */
+	public Object2LongMap<String> errorsPerFile() {
+		return this.errorsPerFile;
+	}
+
+	@Override
+	public void close() {
+		try {
+			this.endFile();
+		} finally {
+			this.out.close();
+		}
+
+		if (this.totalErrors > 0) this.logger.warn(this.totalErrors + " rows of " + this.totalRows + " rejected in " + this.errorsPerFile.size() + " files");
+	}
+}
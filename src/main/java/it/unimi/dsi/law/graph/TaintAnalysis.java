@@ -0,0 +1,250 @@
+package it.unimi.dsi.law.graph;
+
+import com.martiansoftware.jsap.*;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntBigArrays;
+import it.unimi.dsi.fastutil.io.BinIO;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.FileLinesMutableStringIterable;
+import it.unimi.dsi.lang.MutableString;
+import it.unimi.dsi.law.Utils;
+import it.unimi.dsi.logging.ProgressLogger;
+import it.unimi.dsi.sux4j.mph.GOV3Function;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongFunction;
+
+import static it.unimi.dsi.law.graph.Parameters.*;
+
+/** Follows the flow of coins from (forward) or to (backward) a set of seed addresses along time-respecting paths,
+ * that is, sequences of transactions with non-decreasing times, within a time range.
+ *
+ * <p>Going forward, the seeds are tainted at the start of the range, and an address is tainted at the earliest time
+ * of a transaction spending from a tainted address no earlier than the time the latter was tainted; going backward,
+ * the seeds are tainted at the end of the range, and an address is tainted at the latest time of a transaction paying
+ * a tainted address no later than the time the latter was tainted. Transactions outside the range are ignored. Taint
+ * times are corrected level by level: each level expands in parallel the addresses of a bitset frontier whose time
+ * improved in the previous one.
+ *
+ * <p>The transactions of each address on its side (inputs going forward, outputs going backward) are read from a
+ * {@link MappedTable} sorted by time, each tagged with its time in the upper 32 bits, so that the transactions in the
+ * range are found by binary search; the other side of each transaction is read from the flat transaction tables. The
+ * tables are computed from the {@link TransactionsDatabase} and stored the first time they are needed, and memory-mapped
+ * afterwards, so that an analysis only touches the addresses and transactions it reaches.
+ *
+ * <p>The result is the taint time of each address id, in seconds since the epoch, as ints (see
+ * {@link TransactionsDatabase#getTime(long)}): unreached addresses have time -1 going forward and 0 going backward. */
+public class TaintAnalysis {
+	private final boolean forward;
+	private final int threads;
+	private final int numAddresses;
+	private final ProgressLogger progress = Utils.getProgressLogger(TaintAnalysis.class, "addresses");
+
+	/** For each address, the transactions on its side, tagged with their time; for each transaction, the addresses
+	 * on the other side. */
+	private final MappedTable side, otherSide;
+
+	public TaintAnalysis(boolean forward, int threads) throws IOException {
+		this.forward = forward;
+		this.threads = threads;
+
+		final Path side = forward ? addressInputsByTimeTable : addressOutputsByTimeTable;
+		final Path otherSide = forward ? transactionOutputsTable : transactionInputsTable;
+		if (!MappedTable.exists(side.toString()) || !MappedTable.exists(otherSide.toString())) this.build(side, otherSide);
+
+		this.side = MappedTable.load(side.toString());
+		this.otherSide = MappedTable.load(otherSide.toString());
+		this.numAddresses = Math.toIntExact(this.side.size64());
+	}
+
+	/** Computes and stores the missing tables from the transactions database. */
+	private void build(Path sideTable, Path otherSideTable) throws IOException {
+		final GOV3Function<byte[]> addressMap = MappingTables.buildAddressesMap();
+		final GOV3Function<byte[]> transactionMap = MappingTables.buildTransactionsMap();
+		final TransactionsDatabase transactions = new TransactionsDatabase(addressMap, transactionMap);
+		final int numAddresses = Math.toIntExact(addressMap.size64()), numTransactions = Math.toIntExact(transactionMap.size64());
+		final LongFunction<long[]> side = t -> this.forward ? transactions.getInputAddresses(t) : transactions.getOutputAddresses(t);
+
+		if (!MappedTable.exists(otherSideTable.toString())) {
+			this.progress.logger.info("Storing " + otherSideTable);
+			MappedTable.store(numTransactions, this.forward ? transactions::getOutputAddresses : transactions::getInputAddresses, otherSideTable.toString());
+		}
+		if (MappedTable.exists(sideTable.toString())) return;
+
+		transactions.loadTimestamps();
+		final long[][] offsets = LongBigArrays.newBigArray(numAddresses + 1L);
+		this.progress.start("Indexing transactions by " + (this.forward ? "input" : "output") + " address");
+		for (int t = 0; t < numTransactions; t++) {
+			for (long a : side.apply(t)) BigArrays.incr(offsets, a + 1);
+		}
+		for (long a = 1; a <= numAddresses; a++) BigArrays.add(offsets, a, BigArrays.get(offsets, a - 1));
+
+		// Filling the lists in time order leaves each of them sorted by time
+		final int[] byTime = new int[numTransactions];
+		for (int t = 0; t < numTransactions; t++) byTime[t] = t;
+		IntArrays.parallelQuickSort(byTime, (x, y) -> Long.compare(transactions.getTime(x), transactions.getTime(y)));
+
+		final long[][] cursor = BigArrays.copy(offsets);
+		final int[][] index = IntBigArrays.newBigArray(BigArrays.get(offsets, numAddresses));
+		for (int t : byTime) {
+			for (long a : side.apply(t)) {
+				BigArrays.set(index, BigArrays.get(cursor, a), t);
+				BigArrays.incr(cursor, a);
+			}
+		}
+		this.progress.done();
+
+		MappedTable.store(numAddresses, a -> {
+			final long from = BigArrays.get(offsets, a);
+			final long[] list = new long[(int) (BigArrays.get(offsets, a + 1) - from)];
+			for (int i = 0; i < list.length; i++) {
+				final int t = BigArrays.get(index, from + i);
+				list[i] = transactions.getTime(t) << 32 | t;
+			}
+			return list;
+		}, sideTable.toString());
+	}
+
+	private static int unreached(boolean forward) {
+		return forward ? -1 : 0;
+	}
+
+	/** Returns whether the (unsigned) time <code>x</code> improves on <code>y</code>. */
+	private boolean better(int x, int y) {
+		return this.forward ? Integer.compareUnsigned(x, y) < 0 : Integer.compareUnsigned(x, y) > 0;
+	}
+
+	/** Runs the analysis from the given seed addresses within the given time range, and returns the taint time of
+	 * each address.
+	 *
+	 * @param start the start of the range, at which the seeds are tainted going forward.
+	 * @param end the end of the range (inclusive), at which the seeds are tainted going backward. */
+	public int[] run(long[] seeds, long start, long end) {
+		final AtomicIntegerArray time = new AtomicIntegerArray(this.numAddresses);
+		final int unreached = unreached(this.forward);
+		for (int a = 0; a < this.numAddresses; a++) time.set(a, unreached);
+
+		final int words = (this.numAddresses + Long.SIZE - 1) / Long.SIZE;
+		AtomicLongArray frontier = new AtomicLongArray(words), next = new AtomicLongArray(words);
+		for (long s : seeds) {
+			time.set((int) s, (int) (this.forward ? start : end));
+			frontier.getAndUpdate((int) (s >>> 6), w -> w | 1L << s);
+		}
+
+		for (int level = 0; ; level++) {
+			final AtomicLongArray current = frontier, following = next;
+			final AtomicLong expanded = new AtomicLong(), improved = new AtomicLong();
+
+			Utils.invokeAll(Utils.ranges(words, this.threads, (from, to) -> {
+				final MappedTable side = this.side.copy(), otherSide = this.otherSide.copy();
+				long e = 0, i = 0;
+				for (int w = (int) from; w < to; w++) {
+					for (long word = current.get(w); word != 0; word &= word - 1) {
+						i += this.expand(w * 64L + Long.numberOfTrailingZeros(word), (int) start, (int) end, side, otherSide, time, following);
+						e++;
+					}
+					current.set(w, 0);
+				}
+				expanded.addAndGet(e);
+				improved.addAndGet(i);
+				return null;
+			}), this.threads);
+			this.progress.logger.info("Level " + level + ": expanded " + expanded.get() + " addresses, improved " + improved.get() + " taint times");
+			if (improved.get() == 0) break;
+
+			frontier = following;
+			next = current;
+		}
+
+		final int[] result = new int[this.numAddresses];
+		for (int a = 0; a < this.numAddresses; a++) result[a] = time.get(a);
+		return result;
+	}
+
+	/** Follows the usable transactions of an address, lowering (raising) the taint times of the other side,
+	 * and returns the number of improvements. */
+	private long expand(long address, int start, int end, MappedTable side, MappedTable otherSide, AtomicIntegerArray time, AtomicLongArray next) {
+		final int tainted = time.get((int) address);
+		// Going forward, transactions between the taint and the end are usable; going backward, between the start and the taint
+		final int lo = this.forward ? tainted : start, hi = this.forward ? end : tainted;
+		final int length = side.length(address);
+		long improvements = 0;
+
+		int from = 0, to = length;
+		while (from < to) {
+			final int mid = (from + to) >>> 1;
+			if (Integer.compareUnsigned((int) (side.getLong(address, mid) >>> 32), lo) < 0) from = mid + 1;
+			else to = mid;
+		}
+
+		for (int i = from; i < length; i++) {
+			final long transaction = side.getLong(address, i);
+			final int when = (int) (transaction >>> 32);
+			if (Integer.compareUnsigned(when, hi) > 0) break;
+
+			for (long other : otherSide.get(transaction & 0xFFFFFFFFL)) {
+				for (int current = time.get((int) other); this.better(when, current); current = time.get((int) other)) {
+					if (time.compareAndSet((int) other, current, when)) {
+						next.getAndUpdate((int) (other >>> 6), w -> w | 1L << other);
+						improvements++;
+						break;
+					}
+				}
+			}
+		}
+
+		return improvements;
+	}
+
+	public static void main(String[] args) throws IOException, JSAPException {
+		final SimpleJSAP jsap = new SimpleJSAP(TaintAnalysis.class.getName(), "Follow the flow of coins from (or to) the given addresses along time-respecting paths and store the taint time of each address id as ints.",
+				new Parameter[]{
+						new Switch("backward", 'b', "backward", "Follow the flow backward, towards the sources of the coins of the seed addresses."),
+						new FlaggedOption("start", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 's', "start", "The start (yyyy-MM-dd HH:mm:ss) of the time range, at which the seeds are tainted going forward; by default, the beginning of time."),
+						new FlaggedOption("end", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.NOT_REQUIRED, 'e', "end", "The end (yyyy-MM-dd HH:mm:ss, inclusive) of the time range, at which the seeds are tainted going backward; by default, the end of time."),
+						new FlaggedOption("threads", JSAP.INTEGER_PARSER, Integer.toString(Runtime.getRuntime().availableProcessors()), JSAP.NOT_REQUIRED, 'T', "threads", "The number of threads."),
+						new UnflaggedOption("seeds", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "A file with one seed address per line."),
+						new UnflaggedOption("output", JSAP.STRING_PARSER, JSAP.NO_DEFAULT, JSAP.REQUIRED, false, "The file where the taint times will be stored."),
+				}
+		);
+
+		final JSAPResult jsapResult = jsap.parse(args);
+		if (jsap.messagePrinted()) System.exit(1);
+
+		final boolean forward = !jsapResult.getBoolean("backward");
+
+		GOV3Function<byte[]> addressMap = MappingTables.buildAddressesMap();
+
+		final LongArrayList seeds = new LongArrayList();
+		final ObjectArrayList<String> unknown = new ObjectArrayList<>();
+		for (MutableString line : new FileLinesMutableStringIterable(jsapResult.getString("seeds"))) {
+			final String address = line.toString().trim();
+			if (address.isEmpty()) continue;
+			final long id = addressMap.getLong(address.getBytes());
+			if (id == addressMap.defaultReturnValue()) unknown.add(address);
+			else seeds.add(id);
+		}
+		if (!unknown.isEmpty()) LoggerFactory.getLogger(TaintAnalysis.class).warn("Unknown seed addresses: " + unknown);
+
+		final long start = jsapResult.contains("start") ? TransactionsDatabase.parseTime(jsapResult.getString("start")) : 0;
+		final long end = jsapResult.contains("end") ? TransactionsDatabase.parseTime(jsapResult.getString("end")) : Integer.toUnsignedLong(-1);
+		if (start > end) throw new IllegalArgumentException("The start of the time range follows its end");
+
+		TaintAnalysis analysis = new TaintAnalysis(forward, jsapResult.getInt("threads"));
+		final int[] time = analysis.run(seeds.toLongArray(), start, end);
+
+		long reached = 0;
+		for (int t : time) if (t != unreached(forward)) reached++;
+		System.out.println("Tainted addresses: " + reached);
+
+		BinIO.storeInts(time, jsapResult.getString("output"));
+	}
+}
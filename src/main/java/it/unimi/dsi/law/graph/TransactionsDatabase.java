@@ -2,6 +2,7 @@ package it.unimi.dsi.law.graph;
 
 import it.unimi.dsi.fastutil.io.BinIO;
 import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import it.unimi.dsi.law.Utils;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.sux4j.mph.GOV3Function;
@@ -9,10 +10,11 @@ import it.unimi.dsi.sux4j.mph.GOV3Function;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.NoSuchFileException;
+import java.time.LocalDate;
+import java.util.Arrays;
 
 import static it.unimi.dsi.law.graph.Parameters.BitcoinColumn.*;
 import static it.unimi.dsi.law.graph.Parameters.*;
-import static it.unimi.dsi.law.Utils.LineFilter;
 
 public class TransactionsDatabase {
 	private final ProgressLogger progress;
@@ -20,101 +22,279 @@ public class TransactionsDatabase {
 	private final GOV3Function<byte[]> transactionMap;
 	private long[][] transactionInputs;
 	private long[][] transactionOutputs;
+	private long[][] transactionInputValues;
+	private long[][] transactionOutputValues;
+	private int[] transactionBlocks;
+	private int[] transactionTimes;
+	private long rows;
 
 	public TransactionsDatabase(GOV3Function<byte[]> addressMap, GOV3Function<byte[]> transactionMap) throws IOException {
 		this(addressMap, transactionMap, null);
 	}
 
 	public TransactionsDatabase(GOV3Function<byte[]> addressMap, GOV3Function<byte[]> transactionMap, ProgressLogger progress) throws IOException {
+		this(addressMap, transactionMap, progress, false);
+	}
+
+	/** Loads the transaction tables, computing and storing them if missing; the computation checkpoints its
+	 * progress at file boundaries (see {@link Checkpoint}), and resumes from the last checkpoint if restarted.
+	 *
+	 * @param values whether to also load the value (in satoshis) of each input and output, aligned with the addresses;
+	 * if the value tables are missing, the address tables are recomputed with them. */
+	public TransactionsDatabase(GOV3Function<byte[]> addressMap, GOV3Function<byte[]> transactionMap, ProgressLogger progress, boolean values) throws IOException {
 		this.addressMap = addressMap;
 		this.transactionMap = transactionMap;
 		this.progress = progress == null ? Utils.getProgressLogger(Blockchain2Webgraph.class, "sources") : progress;
 
-		if (transactionInputsFile.toFile().exists()) {
-			try {
-				this.progress.logger.info("Loading transaction inputs from memory");
-				this.transactionInputs = (long[][]) BinIO.loadObject(transactionInputsFile.toFile());
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
+		if (transactionInputsFile.toFile().exists() && (!values || transactionInputValuesFile.toFile().exists())) {
+			this.progress.logger.info("Loading transaction inputs from memory");
+			this.transactionInputs = loadTable(transactionInputsFile.toFile());
+			if (values) this.transactionInputValues = loadTable(transactionInputValuesFile.toFile());
 		} else {
-			this.computeInputs();
+			this.computeInputs(values);
 			BinIO.storeObject(this.transactionInputs, transactionInputsFile.toFile());
+			if (values) BinIO.storeObject(this.transactionInputValues, transactionInputValuesFile.toFile());
+			new Checkpoint(checkpointsDirectory.resolve("inputs.checkpoint")).delete();
 		}
 
-		if (transactionOutputsFile.toFile().exists()) {
-			try {
-				this.progress.logger.info("Loading transaction outputs table from memory");
-				this.transactionOutputs = (long[][]) BinIO.loadObject(transactionOutputsFile.toFile());
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
+		if (transactionOutputsFile.toFile().exists() && (!values || transactionOutputValuesFile.toFile().exists())) {
+			this.progress.logger.info("Loading transaction outputs table from memory");
+			this.transactionOutputs = loadTable(transactionOutputsFile.toFile());
+			if (values) this.transactionOutputValues = loadTable(transactionOutputValuesFile.toFile());
 		} else {
-			this.computeOutputs();
+			this.computeOutputs(values);
 			BinIO.storeObject(this.transactionOutputs, transactionOutputsFile.toFile());
+			if (values) BinIO.storeObject(this.transactionOutputValues, transactionOutputValuesFile.toFile());
+			new Checkpoint(checkpointsDirectory.resolve("outputs.checkpoint")).delete();
 		}
 	}
 
-	private void computeInputs() throws IOException {
-		this.transactionInputs = new long[Math.toIntExact(this.transactionMap.size64())][0];
-		int[] offsets = new int[Math.toIntExact(this.transactionMap.size64())];
+	private static long[][] loadTable(File table) {
+		try {
+			return (long[][]) BinIO.loadObject(table);
+		} catch (IOException | ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void computeInputs(boolean values) throws IOException {
+		final Checkpoint checkpoint = new Checkpoint(checkpointsDirectory.resolve("inputs.checkpoint"));
+		final ObjectLinkedOpenHashSet<String> processed = new ObjectLinkedOpenHashSet<>();
+		final Object[] state = (Object[]) checkpoint.load();
+
+		long quarantined = 0;
+		if (state != null && (!values || state[2] != null)) {
+			processed.addAll(Arrays.asList((String[]) state[0]));
+			this.transactionInputs = (long[][]) state[1];
+			if (values) this.transactionInputValues = (long[][]) state[2];
+			quarantined = (long) state[3];
+			this.progress.logger.info("Resuming from checkpoint: " + processed.size() + " files of inputs already processed");
+		} else {
+			this.transactionInputs = new long[Math.toIntExact(this.transactionMap.size64())][0];
+			if (values) this.transactionInputValues = new long[Math.toIntExact(this.transactionMap.size64())][0];
+		}
 		this.progress.start("Computing transaction inputs table");
 
 		File[] sources = inputsDirectory.toFile().listFiles((d, s) -> s.endsWith(".tsv"));
 		if (sources == null) throw new NoSuchFileException("No inputs found in " + inputsDirectory);
+		Arrays.sort(sources);
+		MemoryPlan.table("inputs", sources, this.transactionMap.size64(), values ? 2 : 1);
 
-		Utils.readTSVs(sources, null).forEachRemaining((s) -> {
-			long addressId;
-			int transactionId;
-			try {
-				addressId = this.addressMap.getLong(Utils.columnBytes(s, RECIPIENT));
-				transactionId = (int) this.transactionMap.getLong(Utils.columnBytes(s, SPENDING_TRANSACTION_HASH));
-			} catch (RuntimeException e) {
-				this.progress.logger.error("Column number too high for line\n\t" + s);
-				return;
-			}
+		try (Quarantine quarantine = new Quarantine(inputsQuarantineFile, quarantined, maxErrorRate, this.progress.logger)) {
+			for (File source : sources) {
+				if (processed.contains(source.getName())) continue;
 
-			if (addressId == this.addressMap.defaultReturnValue() || transactionId == this.transactionMap.defaultReturnValue()) {
-				throw new RuntimeException("Unknown address " + Utils.column(s, RECIPIENT) + " (" + addressId + ") or transaction " + Utils.column(s, SPENDING_TRANSACTION_HASH) + " (" + transactionId + ")");
-			}
+				quarantine.startFile(source);
+				Utils.readTSVs(source.toPath(), null).forEachRemaining((s) -> {
+					long addressId, value;
+					int transactionId;
+					try {
+						addressId = this.addressMap.getLong(Utils.columnBytes(s, RECIPIENT));
+						transactionId = (int) this.transactionMap.getLong(Utils.columnBytes(s, SPENDING_TRANSACTION_HASH));
+						value = values ? parseLong(Utils.column(s, VALUE)) : 0;
+					} catch (NumberFormatException e) {
+						quarantine.reject(Quarantine.Reason.INVALID_VALUE, s);
+						return;
+					} catch (RuntimeException e) {
+						quarantine.reject(Quarantine.Reason.MALFORMED_ROW, s);
+						return;
+					}
 
-			this.transactionInputs[transactionId] = LongArrays.ensureCapacity(this.transactionInputs[transactionId], this.transactionInputs[transactionId].length + 1);
-			this.transactionInputs[transactionId][offsets[transactionId]++] = addressId;
-			this.progress.lightUpdate();
-		});
+					if (addressId == this.addressMap.defaultReturnValue() || addressId < 0 || addressId >= this.addressMap.size64()) {
+						quarantine.reject(Quarantine.Reason.UNKNOWN_ADDRESS, s);
+						return;
+					}
+					if (transactionId == this.transactionMap.defaultReturnValue() || transactionId < 0 || transactionId >= this.transactionInputs.length) {
+						quarantine.reject(Quarantine.Reason.UNKNOWN_TRANSACTION, s);
+						return;
+					}
+
+					final int k = this.transactionInputs[transactionId].length;
+					this.transactionInputs[transactionId] = LongArrays.ensureCapacity(this.transactionInputs[transactionId], k + 1);
+					if (values) {
+						this.transactionInputValues[transactionId] = LongArrays.ensureCapacity(this.transactionInputValues[transactionId], k + 1);
+						this.transactionInputValues[transactionId][k] = value;
+					}
+					this.transactionInputs[transactionId][k] = addressId;
+					this.progress.lightUpdate();
+					quarantine.accept();
+				});
+				quarantine.endFile();
+
+				processed.add(source.getName());
+				if (checkpoint.due()) {
+					this.progress.logger.info("Checkpointing after " + processed.size() + " files of inputs");
+					checkpoint.store(new Object[] { processed.toArray(new String[0]), this.transactionInputs, this.transactionInputValues, quarantine.length() });
+				}
+			}
+			this.rows += quarantine.rows();
+		}
 		this.progress.done();
 	}
 
-	private void computeOutputs() throws IOException {
-		this.transactionOutputs = new long[Math.toIntExact(this.transactionMap.size64())][0];
-		int[] offsets = new int[Math.toIntExact(this.transactionMap.size64())];
+	private void computeOutputs(boolean values) throws IOException {
+		final Checkpoint checkpoint = new Checkpoint(checkpointsDirectory.resolve("outputs.checkpoint"));
+		final ObjectLinkedOpenHashSet<String> processed = new ObjectLinkedOpenHashSet<>();
+		final Object[] state = (Object[]) checkpoint.load();
+
+		long quarantined = 0;
+		if (state != null && (!values || state[2] != null)) {
+			processed.addAll(Arrays.asList((String[]) state[0]));
+			this.transactionOutputs = (long[][]) state[1];
+			if (values) this.transactionOutputValues = (long[][]) state[2];
+			quarantined = (long) state[3];
+			this.progress.logger.info("Resuming from checkpoint: " + processed.size() + " files of outputs already processed");
+		} else {
+			this.transactionOutputs = new long[Math.toIntExact(this.transactionMap.size64())][0];
+			if (values) this.transactionOutputValues = new long[Math.toIntExact(this.transactionMap.size64())][0];
+		}
 
-		LineFilter filter = (line) -> Utils.column(line, IS_FROM_COINBASE).equals("0");
 		File[] sources = outputsDirectory.toFile().listFiles((d, s) -> s.endsWith(".tsv"));
 		if (sources == null) throw new NoSuchFileException("No outputs found in " + outputsDirectory);
+		Arrays.sort(sources);
+		MemoryPlan.table("outputs", sources, this.transactionMap.size64(), values ? 2 : 1);
 
 		this.progress.start("Computing transaction outputs table");
 
-		Utils.readTSVs(sources, filter).forEachRemaining((s) -> {
-			long addressId;
-			int transactionId;
-			try {
-				addressId = this.addressMap.getLong(Utils.columnBytes(s, RECIPIENT));
-				transactionId = (int) this.transactionMap.getLong(Utils.columnBytes(s, TRANSACTION_HASH));
-			} catch (RuntimeException e) {
-				this.progress.logger.error("Column number too high for line\n\t" + s);
-				return;
-			}
-			if (addressId == this.addressMap.defaultReturnValue() || transactionId == this.transactionMap.defaultReturnValue()) {
-				throw new RuntimeException("Unknown address " + Utils.column(s, RECIPIENT) + " (" + addressId + ") or transaction " + Utils.column(s, TRANSACTION_HASH) + " (" + transactionId + ")");
+		try (Quarantine quarantine = new Quarantine(outputsQuarantineFile, quarantined, maxErrorRate, this.progress.logger)) {
+			for (File source : sources) {
+				if (processed.contains(source.getName())) continue;
+
+				quarantine.startFile(source);
+				Utils.readTSVs(source.toPath(), null).forEachRemaining((s) -> {
+					long addressId, value;
+					int transactionId;
+					try {
+						// Coinbase outputs are skipped, checking the row in the process
+						if (!Utils.column(s, IS_FROM_COINBASE).equals("0")) {
+							quarantine.accept();
+							return;
+						}
+						addressId = this.addressMap.getLong(Utils.columnBytes(s, RECIPIENT));
+						transactionId = (int) this.transactionMap.getLong(Utils.columnBytes(s, TRANSACTION_HASH));
+						value = values ? parseLong(Utils.column(s, VALUE)) : 0;
+					} catch (NumberFormatException e) {
+						quarantine.reject(Quarantine.Reason.INVALID_VALUE, s);
+						return;
+					} catch (RuntimeException e) {
+						quarantine.reject(Quarantine.Reason.MALFORMED_ROW, s);
+						return;
+					}
+
+					if (addressId == this.addressMap.defaultReturnValue() || addressId < 0 || addressId >= this.addressMap.size64()) {
+						quarantine.reject(Quarantine.Reason.UNKNOWN_ADDRESS, s);
+						return;
+					}
+					if (transactionId == this.transactionMap.defaultReturnValue() || transactionId < 0 || transactionId >= this.transactionOutputs.length) {
+						quarantine.reject(Quarantine.Reason.UNKNOWN_TRANSACTION, s);
+						return;
+					}
+
+					final int k = this.transactionOutputs[transactionId].length;
+					this.transactionOutputs[transactionId] = LongArrays.ensureCapacity(this.transactionOutputs[transactionId], k + 1);
+					if (values) {
+						this.transactionOutputValues[transactionId] = LongArrays.ensureCapacity(this.transactionOutputValues[transactionId], k + 1);
+						this.transactionOutputValues[transactionId][k] = value;
+					}
+					this.transactionOutputs[transactionId][k] = addressId;
+					this.progress.lightUpdate();
+					quarantine.accept();
+				});
+				quarantine.endFile();
+
+				processed.add(source.getName());
+				if (checkpoint.due()) {
+					this.progress.logger.info("Checkpointing after " + processed.size() + " files of outputs");
+					checkpoint.store(new Object[] { processed.toArray(new String[0]), this.transactionOutputs, this.transactionOutputValues, quarantine.length() });
+				}
 			}
+			this.rows += quarantine.rows();
+		}
+
+		this.progress.done();
+	}
 
-			this.transactionOutputs[transactionId] = LongArrays.ensureCapacity(this.transactionOutputs[transactionId], this.transactionOutputs[transactionId].length + 1);
-			this.transactionOutputs[transactionId][offsets[transactionId]++] = addressId;
+	/** Loads the block and the time of each transaction, computing and storing them if missing;
+	 * they are read from the outputs, as every transaction has at least one. */
+	public void loadTimestamps() throws IOException {
+		if (this.transactionBlocks != null) return;
+
+		if (transactionBlocksFile.toFile().exists() && transactionTimesFile.toFile().exists()) {
+			this.progress.logger.info("Loading transaction timestamps from memory");
+			this.transactionBlocks = BinIO.loadInts(transactionBlocksFile.toFile());
+			this.transactionTimes = BinIO.loadInts(transactionTimesFile.toFile());
+			return;
+		}
+
+		final int[] blocks = new int[Math.toIntExact(this.transactionMap.size64())];
+		final int[] times = new int[blocks.length];
+		Arrays.fill(blocks, -1);
+
+		File[] sources = outputsDirectory.toFile().listFiles((d, s) -> s.endsWith(".tsv"));
+		if (sources == null) throw new NoSuchFileException("No outputs found in " + outputsDirectory);
+		Arrays.sort(sources);
+
+		this.progress.start("Computing transaction timestamps");
+
+		Utils.readTSVs(sources, null).forEachRemaining((s) -> {
+			final int transactionId = (int) this.transactionMap.getLong(Utils.columnBytes(s, TRANSACTION_HASH));
+			if (transactionId == this.transactionMap.defaultReturnValue() || blocks[transactionId] != -1) return;
+
+			blocks[transactionId] = (int) parseLong(Utils.column(s, BLOCK_ID));
+			times[transactionId] = (int) parseTime(Utils.column(s, TIME));
 			this.progress.lightUpdate();
 		});
 
 		this.progress.done();
+
+		BinIO.storeInts(blocks, transactionBlocksFile.toFile());
+		BinIO.storeInts(times, transactionTimesFile.toFile());
+		this.transactionBlocks = blocks;
+		this.transactionTimes = times;
+	}
+
+	/** Parses a time in the form <code>yyyy-MM-dd HH:mm:ss</code>, in UTC, into seconds since the epoch. */
+	public static long parseTime(CharSequence s) {
+		final long day = LocalDate.of(digits(s, 0, 4), digits(s, 5, 7), digits(s, 8, 10)).toEpochDay();
+		return day * 86400 + digits(s, 11, 13) * 3600 + digits(s, 14, 16) * 60 + digits(s, 17, 19);
+	}
+
+	private static int digits(CharSequence s, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) value = value * 10 + s.charAt(i) - '0';
+		return value;
+	}
+
+	/** Parses a non-negative decimal number without creating a string. */
+	private static long parseLong(CharSequence s) {
+		if (s.length() == 0) throw new NumberFormatException("Empty value");
+		long value = 0;
+		for (int i = 0; i < s.length(); i++) {
+			final int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9) throw new NumberFormatException("Invalid value " + s);
+			value = value * 10 + digit;
+		}
+		return value;
 	}
 
 	public long[] getInputAddresses(long transaction) {
@@ -124,4 +304,34 @@ public class TransactionsDatabase {
 	public long[] getOutputAddresses(long transaction) {
 		return this.transactionOutputs[(int) transaction];
 	}
+
+	/** Returns the height of the block of the given transaction; requires {@link #loadTimestamps()}. */
+	public int getBlock(long transaction) {
+		return this.transactionBlocks[(int) transaction];
+	}
+
+	/** Returns the time of the given transaction in seconds since the epoch; requires {@link #loadTimestamps()}. */
+	public long getTime(long transaction) {
+		return Integer.toUnsignedLong(this.transactionTimes[(int) transaction]);
+	}
+
+	/** Returns the number of rows of the inputs and outputs read to compute the tables, which is zero if they were
+	 * loaded (and covers only the files left if the computation resumed from a checkpoint). */
+	public long rows() {
+		return this.rows;
+	}
+
+	public boolean hasValues() {
+		return this.transactionInputValues != null;
+	}
+
+	/** Returns the values of the inputs of the given transaction, in the same order as {@link #getInputAddresses(long)}. */
+	public long[] getInputValues(long transaction) {
+		return this.transactionInputValues[(int) transaction];
+	}
+
+	/** Returns the values of the outputs of the given transaction, in the same order as {@link #getOutputAddresses(long)}. */
+	public long[] getOutputValues(long transaction) {
+		return this.transactionOutputValues[(int) transaction];
+	}
 }
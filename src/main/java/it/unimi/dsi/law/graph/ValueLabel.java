@@ -0,0 +1,130 @@
+package it.unimi.dsi.law.graph;
+
+import it.unimi.dsi.io.InputBitStream;
+import it.unimi.dsi.io.OutputBitStream;
+import it.unimi.dsi.webgraph.labelling.AbstractLabel;
+import it.unimi.dsi.webgraph.labelling.Label;
+
+import java.io.IOException;
+
+/** A fixed-width arc label made of the value transferred along an arc, in satoshis, and of the
+ * number of input-output pairs the arc comes from. The two widths are part of the label specification. */
+public class ValueLabel extends AbstractLabel {
+	public static final String VALUE = "value";
+	public static final String MULTIPLICITY = "multiplicity";
+
+	private final int valueWidth;
+	private final int multiplicityWidth;
+	public long value;
+	public int multiplicity;
+
+	public ValueLabel(int valueWidth, int multiplicityWidth) {
+		if (valueWidth < 0 || valueWidth > 64) throw new IllegalArgumentException("Value width out of range: " + valueWidth);
+		if (multiplicityWidth < 0 || multiplicityWidth > 31) throw new IllegalArgumentException("Multiplicity width out of range: " + multiplicityWidth);
+		this.valueWidth = valueWidth;
+		this.multiplicityWidth = multiplicityWidth;
+	}
+
+	/** Creates a label from its specification, that is, the value and the multiplicity widths. */
+	public ValueLabel(String... arg) {
+		this(Integer.parseInt(arg[0]), Integer.parseInt(arg[1]));
+	}
+
+	@Override
+	public String wellKnownAttributeKey() {
+		return VALUE;
+	}
+
+	@Override
+	public String[] attributeKeys() {
+		return new String[]{VALUE, MULTIPLICITY};
+	}
+
+	@Override
+	public Class<?>[] attributeTypes() {
+		return new Class<?>[]{long.class, int.class};
+	}
+
+	@Override
+	public Object get(String key) {
+		return VALUE.equals(key) ? Long.valueOf(this.value) : Integer.valueOf(this.getInt(key));
+	}
+
+	@Override
+	public int getInt(String key) {
+		if (MULTIPLICITY.equals(key)) return this.multiplicity;
+		throw new IllegalArgumentException("Attribute " + key + " is not an int");
+	}
+
+	@Override
+	public long getLong(String key) {
+		if (VALUE.equals(key)) return this.value;
+		if (MULTIPLICITY.equals(key)) return this.multiplicity;
+		throw new IllegalArgumentException("Unknown attribute " + key);
+	}
+
+	@Override
+	public float getFloat(String key) {
+		return this.getLong(key);
+	}
+
+	@Override
+	public double getDouble(String key) {
+		return this.getLong(key);
+	}
+
+	@Override
+	public Object get() {
+		return Long.valueOf(this.value);
+	}
+
+	@Override
+	public long getLong() {
+		return this.value;
+	}
+
+	@Override
+	public float getFloat() {
+		return this.value;
+	}
+
+	@Override
+	public double getDouble() {
+		return this.value;
+	}
+
+	@Override
+	public Label copy() {
+		final ValueLabel copy = new ValueLabel(this.valueWidth, this.multiplicityWidth);
+		copy.value = this.value;
+		copy.multiplicity = this.multiplicity;
+		return copy;
+	}
+
+	@Override
+	public String toSpec() {
+		return this.getClass().getName() + "(" + this.valueWidth + "," + this.multiplicityWidth + ")";
+	}
+
+	@Override
+	public int fromBitStream(InputBitStream in, int source) throws IOException {
+		this.value = in.readLong(this.valueWidth);
+		this.multiplicity = in.readInt(this.multiplicityWidth);
+		return this.fixedWidth();
+	}
+
+	@Override
+	public int toBitStream(OutputBitStream out, int source) throws IOException {
+		return out.writeLong(this.value, this.valueWidth) + out.writeInt(this.multiplicity, this.multiplicityWidth);
+	}
+
+	@Override
+	public int fixedWidth() {
+		return this.valueWidth + this.multiplicityWidth;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.value + " x" + this.multiplicity + "]";
+	}
+}